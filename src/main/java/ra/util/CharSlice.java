@@ -0,0 +1,59 @@
+package ra.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable CharSequence view over a range of ASCII bytes or of chars.
+ * Repointed for every string a parser hands out, so it must not be kept.
+ * Unsynchronized.
+ */
+final class CharSlice implements CharSequence {
+
+    private byte[] bytes;
+    private char[] chars;
+    private int offset;
+    private int length;
+
+    /**
+     * View ASCII-only bytes as chars.
+     */
+    CharSlice set(byte[] b, int off, int len) {
+        bytes = b;
+        chars = null;
+        offset = off;
+        length = len;
+        return this;
+    }
+
+    CharSlice set(char[] c, int off, int len) {
+        chars = c;
+        bytes = null;
+        offset = off;
+        length = len;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException();
+        return chars != null ? chars[offset + index] : (char) bytes[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return chars != null
+                ? new String(chars, offset, length)
+                : new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
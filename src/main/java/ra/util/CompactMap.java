@@ -0,0 +1,151 @@
+package ra.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Unmodifiable, insertion-ordered Map of a parsed JSON object, see JSONParser.setCompactMaps.
+ * Keys and values sit in one flat array and are found by a linear scan; objects with more than
+ * LINEAR_MAX keys add an open-addressed table of indexes into that array.
+ * Equal to the LinkedHashMap it replaces.
+ */
+final class CompactMap extends AbstractMap<String, Object> {
+
+    static final int LINEAR_MAX = 8;
+
+    static final CompactMap EMPTY = new CompactMap(new Object[0], null);
+
+    /** key at 2i, value at 2i+1 */
+    private final Object[] kv;
+    /** entry index + 1 per slot, 0 when free; null for small maps */
+    private final int[] index;
+
+    private CompactMap(Object[] kv, int[] index) {
+        this.kv = kv;
+        this.index = index;
+    }
+
+    /**
+     * @return a copy of the map, whose keys must be Strings
+     */
+    static CompactMap of(Map<?, ?> map) {
+        int n = map.size();
+        if (n == 0)
+            return EMPTY;
+        Object[] kv = new Object[n * 2];
+        int i = 0;
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            kv[i++] = e.getKey();
+            kv[i++] = e.getValue();
+        }
+        if (n <= LINEAR_MAX)
+            return new CompactMap(kv, null);
+        int[] index = new int[Integer.highestOneBit(n - 1) << 2];
+        int mask = index.length - 1;
+        for (int e = 0; e < n; e++) {
+            int slot = hash(kv[e * 2]) & mask;
+            while (index[slot] != 0)
+                slot = (slot + 1) & mask;
+            index[slot] = e + 1;
+        }
+        return new CompactMap(kv, index);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the position of the key in kv, or -1
+     */
+    private int find(Object key) {
+        if (!(key instanceof String))
+            return -1;
+        if (index == null) {
+            for (int i = 0; i < kv.length; i += 2) {
+                if (kv[i] == key)
+                    return i;
+            }
+            for (int i = 0; i < kv.length; i += 2) {
+                if (kv[i].equals(key))
+                    return i;
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int i = (index[slot] - 1) * 2;
+            if (kv[i] == key || kv[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    Object valueAt(int entry) {
+        return kv[entry * 2 + 1];
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = find(key);
+        return i < 0 ? null : kv[i + 1];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return kv.length >> 1;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return kv.length == 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (int i = 0; i < kv.length; i += 2)
+            action.accept((String) kv[i], kv[i + 1]);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < kv.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (i >= kv.length)
+                            throw new NoSuchElementException();
+                        Map.Entry<String, Object> e = new SimpleImmutableEntry<>((String) kv[i], kv[i + 1]);
+                        i += 2;
+                        return e;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return kv.length >> 1;
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package ra.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-thread pool of the containers a parse builds, see JSONParser.setReuseContainers.
+ * Released trees are cleared and their LinkedHashMaps and ArrayLists handed out again
+ * by later parses on the same thread, keeping their grown tables and arrays.
+ */
+final class JSONArena {
+
+    private static final ThreadLocal<JSONArena> ARENA = new ThreadLocal<JSONArena>() {
+        @Override
+        protected JSONArena initialValue() {
+            return new JSONArena();
+        }
+    };
+
+    /** bound on the containers of each kind kept per thread */
+    private static final int MAX_POOLED = 16384;
+    /** larger containers are left to the collector rather than kept with their large tables */
+    private static final int MAX_POOLED_SIZE = 256;
+
+    private final ArrayDeque<LinkedHashMap> maps = new ArrayDeque<>();
+    private final ArrayDeque<ArrayList> lists = new ArrayDeque<>();
+    private final int[] pos = new int[1];
+
+    private JSONArena() {}
+
+    static JSONArena get() {
+        return ARENA.get();
+    }
+
+    Map map() {
+        LinkedHashMap m = maps.poll();
+        return m != null ? m : new LinkedHashMap();
+    }
+
+    ArrayList list() {
+        ArrayList l = lists.poll();
+        return l != null ? l : new ArrayList();
+    }
+
+    /**
+     * @return this thread's position holder, reset to 0
+     */
+    int[] position() {
+        pos[0] = 0;
+        return pos;
+    }
+
+    /**
+     * Return the containers of the tree to the pool. Only LinkedHashMaps and ArrayLists are
+     * recycled, and only they and CompactMaps are descended into; the tree must not be used afterwards.
+     * Exact class tests rather than interface instanceof keep the walk cheap over scalar leaves.
+     * Containers still to visit are kept on a work deque, so any depth the parser built can be released.
+     */
+    void release(Object tree) {
+        if (tree == null)
+            return;
+        ArrayDeque<Object> work = null;
+        while (true) {
+            Class<?> c = tree.getClass();
+            if (c == LinkedHashMap.class) {
+                LinkedHashMap m = (LinkedHashMap) tree;
+                for (Object v : m.values())
+                    work = push(work, v);
+                recycle(m);
+            } else if (c == ArrayList.class) {
+                ArrayList l = (ArrayList) tree;
+                for (int i = 0, n = l.size(); i < n; i++)
+                    work = push(work, l.get(i));
+                recycle(l);
+            } else if (c == CompactMap.class) {
+                CompactMap m = (CompactMap) tree;
+                for (int i = 0, n = m.size(); i < n; i++)
+                    work = push(work, m.valueAt(i));
+            }
+            if (work == null || (tree = work.poll()) == null)
+                return;
+        }
+    }
+
+    /**
+     * Queue a value for release if it is a container, creating the deque on first use.
+     */
+    private static ArrayDeque<Object> push(ArrayDeque<Object> work, Object v) {
+        if (v == null)
+            return work;
+        Class<?> c = v.getClass();
+        if (c != LinkedHashMap.class && c != ArrayList.class && c != CompactMap.class)
+            return work;
+        if (work == null)
+            work = new ArrayDeque<>();
+        work.push(v);
+        return work;
+    }
+
+    void recycle(LinkedHashMap m) {
+        boolean keep = m.size() <= MAX_POOLED_SIZE && maps.size() < MAX_POOLED;
+        m.clear();
+        if (keep)
+            maps.push(m);
+    }
+
+    void recycle(ArrayList l) {
+        boolean keep = l.size() <= MAX_POOLED_SIZE && lists.size() < MAX_POOLED;
+        l.clear();
+        if (keep)
+            lists.push(l);
+    }
+}
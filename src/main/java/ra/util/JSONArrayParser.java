@@ -0,0 +1,194 @@
+package ra.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Parallel parsing of one large top-level JSON array, such as a bulk export.
+ *
+ * A single pass over the UTF-8 bytes finds where each element of the array starts and ends,
+ * tracking only nesting depth and strings (with their escapes); the elements are then parsed
+ * in batches of about equal size on a ForkJoinPool. Each element is fully validated by its
+ * parse, the outer array by the scan.
+ */
+public class JSONArrayParser {
+
+    /** smallest batch of element bytes worth a task */
+    private static final int MIN_BATCH = 64 * 1024;
+    /** batches per worker, so uneven elements still balance */
+    private static final int BATCHES_PER_WORKER = 8;
+
+    /** bytes the element scan has to look at outside strings */
+    private static final boolean[] STRUCTURAL = new boolean[256];
+
+    static {
+        for (char c : "\"{}[],".toCharArray())
+            STRUCTURAL[c] = true;
+    }
+
+    public static List<Object> parse(Path path) throws IOException {
+        byte[] b = Files.readAllBytes(path);
+        return parse(b, 0, b.length, ForkJoinPool.commonPool());
+    }
+
+    public static List<Object> parse(byte[] utf8, int offset, int length) {
+        return parse(utf8, offset, length, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return the elements in document order, in an ArrayList sized to fit
+     */
+    public static List<Object> parse(final byte[] utf8, final int offset, int length, ForkJoinPool pool) {
+        final int[] bounds = split(utf8, offset, length);
+        final Object[] values = new Object[bounds.length / 2];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (final int[] batch : batches(bounds, pool))
+            tasks.add(NDJSONParser.submit(pool, () -> {
+                for (int i = batch[0]; i < batch[1]; i++)
+                    values[i] = parseElement(utf8, offset, bounds, i);
+            }));
+        for (ForkJoinTask<?> task : tasks)
+            NDJSONParser.join(task);
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    /**
+     * @param ordered true to deliver elements in document order from the calling thread,
+     *                keeping a bounded number of batches parsed ahead; false to deliver them
+     *                from the worker threads as batches complete, in which case the consumer
+     *                must be thread safe
+     */
+    public static void forEach(final byte[] utf8, final int offset, int length, ForkJoinPool pool, final Consumer<Object> consumer, boolean ordered) {
+        final int[] bounds = split(utf8, offset, length);
+        List<int[]> batches = batches(bounds, pool);
+        if (!ordered) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(batches.size());
+            for (final int[] batch : batches)
+                tasks.add(NDJSONParser.submit(pool, () -> {
+                    for (int i = batch[0]; i < batch[1]; i++)
+                        consumer.accept(parseElement(utf8, offset, bounds, i));
+                }));
+            for (ForkJoinTask<?> task : tasks)
+                NDJSONParser.join(task);
+            return;
+        }
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<Object[]>> inFlight = new ArrayDeque<>();
+        int submitted = 0;
+        while (submitted < batches.size() || !inFlight.isEmpty()) {
+            while (submitted < batches.size() && inFlight.size() < window) {
+                final int[] batch = batches.get(submitted++);
+                inFlight.add(NDJSONParser.submit(pool, () -> {
+                    Object[] values = new Object[batch[1] - batch[0]];
+                    for (int i = batch[0]; i < batch[1]; i++)
+                        values[i - batch[0]] = parseElement(utf8, offset, bounds, i);
+                    return values;
+                }));
+            }
+            for (Object value : NDJSONParser.join(inFlight.poll()))
+                consumer.accept(value);
+        }
+    }
+
+    /**
+     * Errors give the element's byte offset from the start of the range, like split's.
+     */
+    private static Object parseElement(byte[] b, int offset, int[] bounds, int i) {
+        int start = bounds[i * 2];
+        try {
+            return new UTF8JSONParser(b, start, bounds[i * 2 + 1] - start, null).parseComplete();
+        } catch (IllegalStateException e) {
+            throw new IllegalStateException("JSON array element " + i + " at byte " + (start - offset) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Find the elements of the array filling the range.
+     * @return the start and end offset of each element in b, surrounding whitespace included;
+     *         errors give offsets from the start of the range
+     */
+    private static int[] split(byte[] b, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > b.length)
+            throw new IndexOutOfBoundsException();
+        int end = offset + length;
+        int pos = skipWhitespace(b, offset, end);
+        if (pos == end || b[pos] != '[')
+            throw new IllegalStateException("json expected '[' at " + (pos - offset));
+        int[] bounds = new int[64];
+        int n = 0;
+        int depth = 0;
+        int elementStart = ++pos;
+        for (; pos < end; pos++) {
+            byte c = b[pos];
+            if (!STRUCTURAL[c & 0xFF])
+                continue;
+            if (c == '"') {
+                // skip the string; only quotes and backslashes matter inside it
+                for (pos++; pos < end; pos++) {
+                    c = b[pos];
+                    if (c == '\\')
+                        pos++;
+                    else if (c == '"')
+                        break;
+                }
+            } else if (c == '{' || c == '[')
+                depth++;
+            else if (depth > 0) {
+                if (c == '}' || c == ']')
+                    depth--;
+            } else if (c == ',' || c == ']') {
+                if (c == ']' && n == 0 && skipWhitespace(b, elementStart, pos) == pos) {
+                    // empty array
+                } else {
+                    if (n + 2 > bounds.length)
+                        bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                    bounds[n++] = elementStart;
+                    bounds[n++] = pos;
+                }
+                if (c == ']') {
+                    if (skipWhitespace(b, pos + 1, end) != end)
+                        throw new IllegalStateException("json unexpected character after value at " + (skipWhitespace(b, pos + 1, end) - offset));
+                    return Arrays.copyOf(bounds, n);
+                }
+                elementStart = pos + 1;
+            } else if (c == '}')
+                throw new IllegalStateException("json unexpected '}' at " + (pos - offset));
+        }
+        throw new IllegalStateException("json unexpected end of input at " + length);
+    }
+
+    /**
+     * Group consecutive elements into batches of roughly equal byte size.
+     * @return [first, end) element indexes of each batch
+     */
+    private static List<int[]> batches(int[] bounds, ForkJoinPool pool) {
+        int count = bounds.length / 2;
+        List<int[]> batches = new ArrayList<>();
+        if (count == 0)
+            return batches;
+        long total = bounds[bounds.length - 1] - bounds[0];
+        long target = Math.max(MIN_BATCH, total / ((long) pool.getParallelism() * BATCHES_PER_WORKER));
+        int first = 0;
+        for (int i = 0; i < count; i++) {
+            if (bounds[i * 2 + 1] - bounds[first * 2] >= target || i == count - 1) {
+                batches.add(new int[] {first, i + 1});
+                first = i + 1;
+            }
+        }
+        return batches;
+    }
+
+    private static int skipWhitespace(byte[] b, int pos, int end) {
+        while (pos < end && (b[pos] == ' ' || b[pos] == '\n' || b[pos] == '\r' || b[pos] == '\t'))
+            pos++;
+        return pos;
+    }
+}
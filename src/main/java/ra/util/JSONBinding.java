@@ -0,0 +1,803 @@
+package ra.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Binds JSON objects directly to the fields of plain Java classes and back, streaming through
+ * JSONReader and JSONWriter: no intermediate Map is built and primitive fields are never boxed.
+ *
+ * Every non-static, non-transient field of a class and its superclasses is bound under its name.
+ * Field types may be primitives and their wrappers, String, BigDecimal, BigInteger, Number, enums
+ * (by name), other bound classes, arrays, Lists, Sets, SortedSets, Queues and Deques, String keyed
+ * Maps and SortedMaps of those, and Object, which takes or gives a plain Map/List tree. Any other
+ * field type is rejected with an IllegalStateException naming the field when its class is first bound.
+ * Bound classes need a no-argument constructor, which may be private.
+ * JSONSerializable classes can implement toJSON()/fromJSON() with toString(this)/readInto(json, this).
+ *
+ * Field accessors are resolved into MethodHandles once per class. Thread safe.
+ */
+public final class JSONBinding {
+
+    private static final ClassValue<Binding> BINDINGS = new ClassValue<Binding>() {
+        @Override
+        protected Binding computeValue(Class<?> type) {
+            return new Binding(type);
+        }
+    };
+
+    private JSONBinding() {}
+
+    /**
+     * @throws IllegalStateException on malformed JSON or a value that does not fit its field
+     */
+    public static <T> T read(String json, Class<T> type) {
+        try {
+            return read(new JSONReader(new StringReader(json)), type);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static <T> T read(byte[] utf8, int offset, int length, Class<T> type) {
+        try {
+            return read(new JSONReader(new ByteArrayInputStream(utf8, offset, length)), type);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read the next value as an instance of type.
+     */
+    public static <T> T read(JSONReader reader, Class<T> type) throws IOException {
+        return type.cast(readValue(codec(type), reader));
+    }
+
+    /**
+     * Fill the fields of an existing instance from a JSON object.
+     */
+    public static <T> T readInto(String json, T target) {
+        try {
+            return readInto(new JSONReader(new StringReader(json)), target);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static <T> T readInto(JSONReader reader, T target) throws IOException {
+        BINDINGS.get(target.getClass()).readFields(reader, target);
+        return target;
+    }
+
+    public static String toString(Object bean) {
+        StringBuilder buf = new StringBuilder();
+        try {
+            write(bean, new JSONWriter(buf));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Write the object through its bound fields as the next value of the writer.
+     * Instances of classes that cannot be bound, such as other JDK collections, are written
+     * as JSONWriter.write would.
+     */
+    public static void write(Object bean, JSONWriter writer) throws IOException {
+        if (bean == null) {
+            writer.nullValue();
+            return;
+        }
+        Codec codec;
+        try {
+            codec = codec(bean.getClass());
+        } catch (IllegalStateException e) {
+            codec = TREE;
+        }
+        codec.write(writer, bean);
+    }
+
+    private static Object readValue(Codec codec, JSONReader reader) throws IOException {
+        if (reader.peek() == JSONReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return codec.read(reader);
+    }
+
+    private static void writeValue(Codec codec, JSONWriter writer, Object value) throws IOException {
+        if (value == null)
+            writer.nullValue();
+        else
+            codec.write(writer, value);
+    }
+
+    private static RuntimeException rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        return new IllegalStateException(t);
+    }
+
+    /**
+     * Reads and writes non-null values of one reference type.
+     */
+    private abstract static class Codec {
+        abstract Object read(JSONReader r) throws IOException;
+
+        abstract void write(JSONWriter w, Object v) throws IOException;
+    }
+
+    private static final Codec STRING = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return r.nextString();
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value((String) v);
+        }
+    };
+
+    private static final Codec CHARACTER = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return readChar(r);
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value(v.toString());
+        }
+    };
+
+    private static final Codec BOOLEAN = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return r.nextBoolean();
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value(((Boolean) v).booleanValue());
+        }
+    };
+
+    /** Byte, Short, Integer and Long */
+    private static final class IntegerCodec extends Codec {
+        private final Class<?> type;
+
+        IntegerCodec(Class<?> type) {
+            this.type = type;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            long v = r.nextLong();
+            if (type == Long.class)
+                return v;
+            if (type == Integer.class)
+                return (int) narrow(r, v, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (type == Short.class)
+                return (short) narrow(r, v, Short.MIN_VALUE, Short.MAX_VALUE);
+            return (byte) narrow(r, v, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value(((Number) v).longValue());
+        }
+    }
+
+    private static final Codec DOUBLE = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return r.nextDouble();
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value(((Number) v).doubleValue());
+        }
+    };
+
+    private static final Codec FLOAT = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return (float) r.nextDouble();
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value(((Float) v).floatValue());
+        }
+    };
+
+    /** exact, from the number text */
+    private static final Codec BIG_DECIMAL = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return new BigDecimal(r.nextNumberText());
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.write(v);
+        }
+    };
+
+    private static final Codec BIG_INTEGER = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            String text = r.nextNumberText();
+            try {
+                return new BigDecimal(text).toBigIntegerExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("json number " + text + " is not an integer at " + r.getPosition());
+            }
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.write(v);
+        }
+    };
+
+    /** Integer, Long, Double or BigDecimal, as the parser picks */
+    private static final Codec NUMBER = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return r.nextNumber();
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.write(v);
+        }
+    };
+
+    /** plain parsed trees, for Object fields */
+    private static final Codec TREE = new Codec() {
+        Object read(JSONReader r) throws IOException {
+            return JSONParser.parse(r);
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.write(v);
+        }
+    };
+
+    private static final class EnumCodec extends Codec {
+        private final Class type;
+
+        EnumCodec(Class<?> type) {
+            this.type = type;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            String name = r.nextString();
+            try {
+                return Enum.valueOf(type, name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("json unknown " + type.getSimpleName() + " '" + name + "' at " + r.getPosition());
+            }
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.value(((Enum) v).name());
+        }
+    }
+
+    private static final class CollectionCodec extends Codec {
+        private final Supplier<Collection> factory;
+        private final Codec element;
+
+        CollectionCodec(Supplier<Collection> factory, Codec element) {
+            this.factory = factory;
+            this.element = element;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            Collection c = factory.get();
+            r.beginArray();
+            while (r.hasNext()) {
+                Object e = readValue(element, r);
+                try {
+                    c.add(e);
+                } catch (NullPointerException | ClassCastException x) {
+                    // TreeSet and ArrayDeque refuse null, TreeSet also what is not Comparable
+                    throw new IllegalStateException("json " + c.getClass().getSimpleName() + " cannot hold " + e + " at " + r.getPosition());
+                }
+            }
+            r.endArray();
+            return c;
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.beginArray();
+            for (Object o : (Iterable) v)
+                writeValue(element, w, o);
+            w.endArray();
+        }
+    }
+
+    private static final class MapCodec extends Codec {
+        private final Supplier<Map> factory;
+        private final Codec value;
+
+        MapCodec(Supplier<Map> factory, Codec value) {
+            this.factory = factory;
+            this.value = value;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            Map map = factory.get();
+            r.beginObject();
+            while (r.hasNext())
+                map.put(r.nextKey(), readValue(value, r));
+            r.endObject();
+            return map;
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.beginObject();
+            for (Object o : ((Map) v).entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                w.key(String.valueOf(e.getKey()));
+                writeValue(value, w, e.getValue());
+            }
+            w.endObject();
+        }
+    }
+
+    private static final class ArrayCodec extends Codec {
+        private final Class<?> component;
+        private final Codec element;
+
+        ArrayCodec(Class<?> component, Codec element) {
+            this.component = component;
+            this.element = element;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            List list = new ArrayList();
+            r.beginArray();
+            while (r.hasNext())
+                list.add(readValue(element, r));
+            r.endArray();
+            return list.toArray((Object[]) Array.newInstance(component, list.size()));
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            w.beginArray();
+            for (Object o : (Object[]) v)
+                writeValue(element, w, o);
+            w.endArray();
+        }
+    }
+
+    /** arrays of one primitive type, read without boxing */
+    private static final class PrimitiveArrayCodec extends Codec {
+        private final Class<?> component;
+
+        PrimitiveArrayCodec(Class<?> component) {
+            this.component = component;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            Object a = Array.newInstance(component, 16);
+            int capacity = 16;
+            int n = 0;
+            r.beginArray();
+            while (r.hasNext()) {
+                if (n == capacity) {
+                    Object grown = Array.newInstance(component, capacity *= 2);
+                    System.arraycopy(a, 0, grown, 0, n);
+                    a = grown;
+                }
+                if (r.peek() == JSONReader.Token.NULL)
+                    throw new IllegalStateException("json null in " + component + "[] at " + r.getPosition());
+                set(r, a, n++);
+            }
+            r.endArray();
+            if (n == capacity)
+                return a;
+            Object trimmed = Array.newInstance(component, n);
+            System.arraycopy(a, 0, trimmed, 0, n);
+            return trimmed;
+        }
+
+        private void set(JSONReader r, Object a, int i) throws IOException {
+            if (component == int.class)
+                ((int[]) a)[i] = r.nextInt();
+            else if (component == long.class)
+                ((long[]) a)[i] = r.nextLong();
+            else if (component == double.class)
+                ((double[]) a)[i] = r.nextDouble();
+            else if (component == float.class)
+                ((float[]) a)[i] = (float) r.nextDouble();
+            else if (component == short.class)
+                ((short[]) a)[i] = (short) narrow(r, r.nextLong(), Short.MIN_VALUE, Short.MAX_VALUE);
+            else if (component == byte.class)
+                ((byte[]) a)[i] = (byte) narrow(r, r.nextLong(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+            else if (component == boolean.class)
+                ((boolean[]) a)[i] = r.nextBoolean();
+            else
+                ((char[]) a)[i] = readChar(r);
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            if (v instanceof int[] || v instanceof long[] || v instanceof double[]) {
+                w.write(v);
+                return;
+            }
+            w.beginArray();
+            int len = Array.getLength(v);
+            for (int i = 0; i < len; i++) {
+                if (v instanceof float[])
+                    w.value(((float[]) v)[i]);
+                else if (v instanceof short[])
+                    w.value(((short[]) v)[i]);
+                else if (v instanceof byte[])
+                    w.value(((byte[]) v)[i]);
+                else if (v instanceof boolean[])
+                    w.value(((boolean[]) v)[i]);
+                else
+                    w.value(String.valueOf(((char[]) v)[i]));
+            }
+            w.endArray();
+        }
+    }
+
+    /** resolves its Binding on first use, so classes may refer to themselves */
+    private static final class BeanCodec extends Codec {
+        private final Class<?> type;
+
+        BeanCodec(Class<?> type) {
+            this.type = type;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            return BINDINGS.get(type).read(r);
+        }
+
+        void write(JSONWriter w, Object v) throws IOException {
+            BINDINGS.get(v.getClass()).write(w, v);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if values of the type cannot be bound
+     */
+    private static Codec codec(Type type) {
+        if (type instanceof WildcardType)
+            return codec(((WildcardType) type).getUpperBounds()[0]);
+        if (type instanceof TypeVariable)
+            return codec(((TypeVariable<?>) type).getBounds()[0]);
+        if (type instanceof GenericArrayType) {
+            Type component = ((GenericArrayType) type).getGenericComponentType();
+            return new ArrayCodec(rawType(component), codec(component));
+        }
+        Class<?> raw = rawType(type);
+        if (raw == String.class || raw == CharSequence.class)
+            return STRING;
+        if (raw == Integer.class || raw == Long.class || raw == Short.class || raw == Byte.class)
+            return new IntegerCodec(raw);
+        if (raw == Double.class)
+            return DOUBLE;
+        if (raw == Float.class)
+            return FLOAT;
+        if (raw == Boolean.class)
+            return BOOLEAN;
+        if (raw == Character.class)
+            return CHARACTER;
+        if (raw == BigDecimal.class)
+            return BIG_DECIMAL;
+        if (raw == BigInteger.class)
+            return BIG_INTEGER;
+        if (raw == Number.class)
+            return NUMBER;
+        if (raw == Object.class)
+            return TREE;
+        if (raw.isEnum())
+            return new EnumCodec(raw);
+        if (raw.isArray()) {
+            Class<?> component = raw.getComponentType();
+            if (component.isPrimitive())
+                return new PrimitiveArrayCodec(component);
+            return new ArrayCodec(component, codec(component));
+        }
+        if (Iterable.class.isAssignableFrom(raw)) {
+            Supplier<Collection> factory = collectionFactory(raw);
+            if (factory != null)
+                return new CollectionCodec(factory, codec(typeArgument(type, 0)));
+        } else if (Map.class.isAssignableFrom(raw)) {
+            Supplier<Map> factory = mapFactory(raw);
+            if (factory != null && rawType(typeArgument(type, 0)).isAssignableFrom(String.class))
+                return new MapCodec(factory, codec(typeArgument(type, 1)));
+        } else if (!raw.isPrimitive() && !raw.isInterface() && !Modifier.isAbstract(raw.getModifiers())
+                && !raw.getName().startsWith("java."))
+            return new BeanCodec(raw);
+        throw new IllegalStateException("json cannot bind " + type.getTypeName());
+    }
+
+    /**
+     * @return the collection to read a value of the declared type into, null if there is none
+     */
+    private static Supplier<Collection> collectionFactory(Class<?> raw) {
+        if (raw.isAssignableFrom(ArrayList.class))
+            return ArrayList::new;
+        if (raw.isAssignableFrom(LinkedHashSet.class))
+            return LinkedHashSet::new;
+        if (raw.isAssignableFrom(TreeSet.class))
+            return TreeSet::new;
+        if (raw.isAssignableFrom(ArrayDeque.class))
+            return ArrayDeque::new;
+        if (raw.isAssignableFrom(LinkedList.class))
+            return LinkedList::new;
+        return null;
+    }
+
+    private static Supplier<Map> mapFactory(Class<?> raw) {
+        if (raw.isAssignableFrom(LinkedHashMap.class))
+            return LinkedHashMap::new;
+        if (raw.isAssignableFrom(TreeMap.class))
+            return TreeMap::new;
+        return null;
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        if (type instanceof ParameterizedType)
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType)
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        if (type instanceof TypeVariable)
+            return rawType(((TypeVariable<?>) type).getBounds()[0]);
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < args.length)
+                return args[index];
+        }
+        return Object.class;
+    }
+
+    private static long narrow(JSONReader r, long v, long min, long max) {
+        if (v < min || v > max)
+            throw new IllegalStateException("json number " + v + " out of range at " + r.getPosition());
+        return v;
+    }
+
+    private static char readChar(JSONReader r) throws IOException {
+        String s = r.nextString();
+        if (s.length() != 1)
+            throw new IllegalStateException("json expected a single character at " + r.getPosition());
+        return s.charAt(0);
+    }
+
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int SHORT = 2;
+    private static final int BYTE = 3;
+    private static final int DOUBLE_VALUE = 4;
+    private static final int FLOAT_VALUE = 5;
+    private static final int BOOLEAN_VALUE = 6;
+    private static final int CHAR = 7;
+    private static final int REFERENCE = 8;
+
+    /**
+     * One bound field. Accessors are adapted to (Object)T getters and (Object,T)void setters
+     * with T the primitive field type, or Object for references, so they can be invoked exactly.
+     */
+    private static final class Property {
+        final String name;
+        final int kind;
+        final MethodHandle getter;
+        final MethodHandle setter;
+        final Codec codec;
+
+        Property(Field field, MethodHandles.Lookup lookup) throws IllegalAccessException {
+            name = field.getName();
+            Class<?> t = field.getType();
+            kind = t == int.class ? INT : t == long.class ? LONG : t == short.class ? SHORT : t == byte.class ? BYTE
+                    : t == double.class ? DOUBLE_VALUE : t == float.class ? FLOAT_VALUE : t == boolean.class ? BOOLEAN_VALUE
+                    : t == char.class ? CHAR : REFERENCE;
+            Class<?> exact = kind == REFERENCE ? Object.class : t;
+            field.setAccessible(true);
+            getter = lookup.unreflectGetter(field).asType(MethodType.methodType(exact, Object.class));
+            setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, exact));
+            try {
+                codec = kind == REFERENCE ? codec(field.getGenericType()) : null;
+            } catch (IllegalStateException e) {
+                throw new IllegalStateException("json cannot bind field " + field.getDeclaringClass().getName() + "." + name
+                        + " of type " + field.getGenericType().getTypeName(), e);
+            }
+        }
+
+        void read(JSONReader r, Object bean) throws Throwable {
+            if (r.peek() == JSONReader.Token.NULL) {
+                r.nextNull();
+                // primitives keep their default
+                if (kind == REFERENCE)
+                    setter.invokeExact(bean, (Object) null);
+                return;
+            }
+            switch (kind) {
+                case INT:
+                    setter.invokeExact(bean, r.nextInt());
+                    break;
+                case LONG:
+                    setter.invokeExact(bean, r.nextLong());
+                    break;
+                case SHORT:
+                    setter.invokeExact(bean, (short) narrow(r, r.nextLong(), Short.MIN_VALUE, Short.MAX_VALUE));
+                    break;
+                case BYTE:
+                    setter.invokeExact(bean, (byte) narrow(r, r.nextLong(), Byte.MIN_VALUE, Byte.MAX_VALUE));
+                    break;
+                case DOUBLE_VALUE:
+                    setter.invokeExact(bean, r.nextDouble());
+                    break;
+                case FLOAT_VALUE:
+                    setter.invokeExact(bean, (float) r.nextDouble());
+                    break;
+                case BOOLEAN_VALUE:
+                    setter.invokeExact(bean, r.nextBoolean());
+                    break;
+                case CHAR:
+                    setter.invokeExact(bean, readChar(r));
+                    break;
+                default:
+                    setter.invokeExact(bean, codec.read(r));
+            }
+        }
+
+        void write(JSONWriter w, Object bean) throws Throwable {
+            switch (kind) {
+                case INT:
+                    w.value((int) getter.invokeExact(bean));
+                    break;
+                case LONG:
+                    w.value((long) getter.invokeExact(bean));
+                    break;
+                case SHORT:
+                    w.value((short) getter.invokeExact(bean));
+                    break;
+                case BYTE:
+                    w.value((byte) getter.invokeExact(bean));
+                    break;
+                case DOUBLE_VALUE:
+                    w.value((double) getter.invokeExact(bean));
+                    break;
+                case FLOAT_VALUE:
+                    w.value((float) getter.invokeExact(bean));
+                    break;
+                case BOOLEAN_VALUE:
+                    w.value((boolean) getter.invokeExact(bean));
+                    break;
+                case CHAR:
+                    w.value(String.valueOf((char) getter.invokeExact(bean)));
+                    break;
+                default:
+                    writeValue(codec, w, (Object) getter.invokeExact(bean));
+            }
+        }
+    }
+
+    private static final class Binding {
+        private final Class<?> type;
+        /** ()Object, null without a no-argument constructor */
+        private final MethodHandle constructor;
+        private final Property[] properties;
+
+        Binding(Class<?> type) {
+            this.type = type;
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+                hierarchy.add(0, c);
+            List<Property> props = new ArrayList<>();
+            try {
+                for (Class<?> c : hierarchy) {
+                    for (Field f : c.getDeclaredFields()) {
+                        int m = f.getModifiers();
+                        if (!Modifier.isStatic(m) && !Modifier.isTransient(m) && !f.isSynthetic())
+                            props.add(new Property(f, lookup));
+                    }
+                }
+            } catch (IllegalStateException e) {
+                throw e;
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot bind " + type.getName() + ": " + e, e);
+            }
+            properties = props.toArray(new Property[props.size()]);
+            MethodHandle ctor = null;
+            try {
+                Constructor<?> c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+                ctor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                // write only
+            }
+            constructor = ctor;
+        }
+
+        Object read(JSONReader r) throws IOException {
+            if (constructor == null)
+                throw new IllegalStateException("json cannot create " + type.getName() + " without a no-argument constructor");
+            Object bean;
+            try {
+                bean = (Object) constructor.invokeExact();
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            readFields(r, bean);
+            return bean;
+        }
+
+        void readFields(JSONReader r, Object bean) throws IOException {
+            r.beginObject();
+            // members usually come in field order, so try the next field first
+            int next = 0;
+            while (r.hasNext()) {
+                r.nextToken();
+                int p = find(r, next);
+                if (p < 0) {
+                    r.skipValue();
+                    continue;
+                }
+                try {
+                    properties[p].read(r, bean);
+                } catch (Throwable t) {
+                    throw rethrow(t);
+                }
+                next = p + 1;
+            }
+            r.endObject();
+        }
+
+        private int find(JSONReader r, int hint) {
+            if (hint < properties.length && r.textEquals(properties[hint].name))
+                return hint;
+            for (int i = 0; i < properties.length; i++) {
+                if (r.textEquals(properties[i].name))
+                    return i;
+            }
+            return -1;
+        }
+
+        void write(JSONWriter w, Object bean) throws IOException {
+            w.beginObject();
+            for (Property p : properties) {
+                w.key(p.name);
+                try {
+                    p.write(w, bean);
+                } catch (Throwable t) {
+                    throw rethrow(t);
+                }
+            }
+            w.endObject();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ra.util;
+
+/**
+ * Receives a document as a sequence of events, see JSONParser.parse(byte[], int, int, JSONHandler).
+ *
+ * Keys and strings are passed as CharSequence views over the parser's buffers, valid only
+ * during the call: compare them in place (e.g. String.contentEquals) or call toString() to keep them.
+ * Numbers are passed as primitives. Every method does nothing by default,
+ * so a handler only implements the events it is interested in.
+ */
+public interface JSONHandler {
+
+    default void startObject() {}
+
+    default void endObject() {}
+
+    default void startArray() {}
+
+    default void endArray() {}
+
+    /**
+     * The key of the next object member; its value follows.
+     */
+    default void key(CharSequence key) {}
+
+    default void string(CharSequence value) {}
+
+    /**
+     * An integer that fits in a long.
+     */
+    default void number(long value) {}
+
+    /**
+     * Any other number a double can hold without losing significant digits.
+     */
+    default void number(double value) {}
+
+    /**
+     * A number beyond long range or double precision, as its source text.
+     * By default passed on rounded to a double.
+     */
+    default void bigNumber(CharSequence text) {
+        number(Double.parseDouble(text.toString()));
+    }
+
+    default void bool(boolean value) {}
+
+    default void nul() {}
+}
@@ -0,0 +1,104 @@
+package ra.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * RFC 7386 JSON Merge Patch over the Map/List trees of JSONParser.
+ *
+ * apply() changes the target in place and only copies a map it cannot modify (a CompactMap
+ * or another unmodifiable Map), and only once something in it actually changes.
+ * diff() produces the smallest merge patch between two trees, skipping identical subtrees
+ * by reference before comparing them.
+ *
+ * Merge patches cannot express null member values or changes inside arrays: a null in a
+ * patch removes the member, and an array is always replaced as a whole.
+ */
+public final class JSONMergePatch {
+
+    private JSONMergePatch() {}
+
+    /**
+     * Merge the patch into the target.
+     * @return the patched tree, which is target itself unless target is not a Map, is an
+     *         unmodifiable Map that had to be copied, or the patch is not a Map
+     */
+    public static Object apply(Object target, Object patch) {
+        if (!(patch instanceof Map))
+            return patch;
+        Map map = target instanceof Map ? (Map) target : new LinkedHashMap();
+        for (Object o : ((Map) patch).entrySet()) {
+            Map.Entry e = (Map.Entry) o;
+            Object key = e.getKey();
+            Object value = e.getValue();
+            if (value == null) {
+                if (map.containsKey(key))
+                    map = remove(map, key);
+            } else {
+                Object old = map.get(key);
+                Object merged = apply(old, value);
+                if (merged != old && !merged.equals(old))
+                    map = put(map, key, merged);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the merge patch that apply() turns source into target with; an empty Map if
+     *         they are equal, and target itself if either is not a Map
+     */
+    public static Object diff(Object source, Object target) {
+        if (!(source instanceof Map) || !(target instanceof Map))
+            return target;
+        Map patch = new LinkedHashMap();
+        if (source == target)
+            return patch;
+        Map from = (Map) source;
+        Map to = (Map) target;
+        for (Object key : from.keySet()) {
+            if (!to.containsKey(key))
+                patch.put(key, null);
+        }
+        for (Object o : to.entrySet()) {
+            Map.Entry e = (Map.Entry) o;
+            Object key = e.getKey();
+            Object value = e.getValue();
+            Object old = from.get(key);
+            if (old == value && (old != null || from.containsKey(key)))
+                continue;
+            if (old instanceof Map && value instanceof Map) {
+                Map sub = (Map) diff(old, value);
+                if (!sub.isEmpty())
+                    patch.put(key, sub);
+            } else if (old == null || !Objects.equals(old, value))
+                patch.put(key, value);
+        }
+        return patch;
+    }
+
+    private static Map put(Map map, Object key, Object value) {
+        if (map instanceof CompactMap)
+            map = new LinkedHashMap(map);
+        try {
+            map.put(key, value);
+        } catch (UnsupportedOperationException e) {
+            map = new LinkedHashMap(map);
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    private static Map remove(Map map, Object key) {
+        if (map instanceof CompactMap)
+            map = new LinkedHashMap(map);
+        try {
+            map.remove(key);
+        } catch (UnsupportedOperationException e) {
+            map = new LinkedHashMap(map);
+            map.remove(key);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,96 @@
+package ra.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Drops the whitespace outside strings from UTF-8 JSON, a buffer at a time, in constant memory.
+ * Works on bytes without decoding: whitespace, quotes and backslashes are ASCII and never occur
+ * inside a multi-byte sequence. Everything else is copied in bulk runs; the input is not validated.
+ * Keeps the string state between buffers, so one instance handles one document.
+ * Unsynchronized.
+ */
+final class JSONMinifier {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private boolean inString;
+    private boolean escaped;
+
+    static void minify(InputStream in, OutputStream out) throws IOException {
+        JSONMinifier m = new JSONMinifier();
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            n = m.strip(buf, 0, n, buf, 0);
+            if (n > 0)
+                out.write(buf, 0, n);
+        }
+        out.flush();
+    }
+
+    /**
+     * Heap buffers may share their array, also when dst starts inside the unread part of src;
+     * the output then goes through a copy of src. Direct buffers must not overlap.
+     * @throws java.nio.BufferOverflowException if dst has no room for the minified bytes
+     */
+    static void minify(ByteBuffer src, ByteBuffer dst) {
+        JSONMinifier m = new JSONMinifier();
+        if (src.hasArray() && dst.hasArray()) {
+            int srcOff = src.arrayOffset() + src.position();
+            int dstOff = dst.arrayOffset() + dst.position();
+            if (src.array() == dst.array() && dstOff > srcOff && dstOff < srcOff + src.remaining()) {
+                // the output would overwrite input not read yet
+                byte[] copy = new byte[src.remaining()];
+                src.get(copy);
+                src = ByteBuffer.wrap(copy);
+                srcOff = 0;
+            }
+            if (dst.remaining() >= src.remaining()) {
+                int n = m.strip(src.array(), srcOff, src.remaining(), dst.array(), dstOff);
+                ((java.nio.Buffer) src).position(src.limit());
+                ((java.nio.Buffer) dst).position(dst.position() + n);
+                return;
+            }
+        }
+        byte[] buf = new byte[Math.min(BUFFER_SIZE, src.remaining())];
+        while (src.hasRemaining()) {
+            int n = Math.min(buf.length, src.remaining());
+            src.get(buf, 0, n);
+            dst.put(buf, 0, m.strip(buf, 0, n, buf, 0));
+        }
+    }
+
+    /**
+     * Copy in[off, off+len) to out from outOff without whitespace outside strings.
+     * out may be in itself, at or before off.
+     * @return the number of bytes written, at most len
+     */
+    int strip(byte[] in, int off, int len, byte[] out, int outOff) {
+        int end = off + len;
+        int o = outOff;
+        // start of the bytes still to be copied
+        int run = off;
+        for (int i = off; i < end; i++) {
+            byte c = in[i];
+            if (inString) {
+                if (escaped)
+                    escaped = false;
+                else if (c == '\\')
+                    escaped = true;
+                else if (c == '"')
+                    inString = false;
+            } else if (c == '"')
+                inString = true;
+            else if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                System.arraycopy(in, run, out, o, i - run);
+                o += i - run;
+                run = i + 1;
+            }
+        }
+        System.arraycopy(in, run, out, o, end - run);
+        return o + end - run - outOff;
+    }
+}
@@ -0,0 +1,247 @@
+package ra.util;
+
+import java.math.BigDecimal;
+
+/**
+ * Exception-free conversion of JSON number text.
+ *
+ * Digits are accumulated into a long mantissa and a decimal exponent in a single pass.
+ * Integers become Integer or Long, decimals become Double, and values that cannot be held
+ * without losing precision (integers beyond long, more than 17 significant digits,
+ * or out of double range) become BigDecimal.
+ */
+final class JSONNumber {
+
+    /** significant digits that always fit in a long mantissa */
+    static final int MAX_MANTISSA_DIGITS = 18;
+    /** significant digits a double can round trip */
+    private static final int MAX_DOUBLE_DIGITS = 17;
+    /** mantissas up to 2^53 (15 digits is safe) times exact powers of ten convert with one rounding */
+    private static final int MAX_FAST_DIGITS = 15;
+    /** exponents of up to 9 digits keep a BigDecimal scale within int range */
+    private static final int MAX_EXPONENT_DIGITS = 9;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private JSONNumber() {}
+
+    /**
+     * Scan a number starting at pos[0] and advance pos[0] past it.
+     * Accepts an optional sign, digits, an optional fraction and an optional exponent;
+     * the scan stops at the first char that cannot continue the number.
+     *
+     * @return null if no number starts at pos[0]
+     */
+    static Number parse(CharSequence s, int[] pos, int limit) {
+        int start = pos[0];
+        int i = start;
+        boolean negative = false;
+        if (i < limit) {
+            char c = s.charAt(i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        int mantissaChars = 0;
+        boolean integral = true;
+        char c = 0;
+        for (; i < limit; i++) {
+            c = s.charAt(i);
+            if (c < '0' || c > '9')
+                break;
+            mantissaChars++;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                if (mantissa != 0 || c != '0') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                }
+            } else {
+                digits++;
+                exp10++;
+            }
+        }
+        if (i < limit && c == '.') {
+            integral = false;
+            for (i++; i < limit; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9')
+                    break;
+                mantissaChars++;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    if (mantissa != 0 || c != '0') {
+                        mantissa = mantissa * 10 + (c - '0');
+                        digits++;
+                    }
+                    exp10--;
+                } else
+                    digits++;
+            }
+        }
+        if (mantissaChars == 0)
+            return null;
+        if (i < limit && (c == 'e' || c == 'E')) {
+            int e = i + 1;
+            boolean negativeExp = false;
+            if (e < limit && (s.charAt(e) == '-' || s.charAt(e) == '+')) {
+                negativeExp = s.charAt(e) == '-';
+                e++;
+            }
+            int expStart = e;
+            int exp = 0;
+            for (; e < limit; e++) {
+                char d = s.charAt(e);
+                if (d < '0' || d > '9')
+                    break;
+                if (exp < 100000)
+                    exp = exp * 10 + (d - '0');
+            }
+            if (e > expStart) {
+                integral = false;
+                exp10 += negativeExp ? -exp : exp;
+                i = e;
+            }
+        }
+        pos[0] = i;
+
+        Number result = valueOf(negative, mantissa, digits, exp10, integral);
+        if (result != null)
+            return result;
+        return valueOf(s.subSequence(start, i).toString(), integral);
+    }
+
+    /**
+     * Find the end of the number parse(CharSequence, int[], int) would read at start, without converting it.
+     *
+     * @return the index after the number, or -1 if no number starts at start
+     */
+    static int scan(CharSequence s, int start, int limit) {
+        int i = start;
+        if (i < limit && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            i++;
+        int digits = i;
+        while (i < limit && isDigit(s.charAt(i)))
+            i++;
+        int mantissaChars = i - digits;
+        if (i < limit && s.charAt(i) == '.') {
+            int fraction = ++i;
+            while (i < limit && isDigit(s.charAt(i)))
+                i++;
+            mantissaChars += i - fraction;
+        }
+        if (mantissaChars == 0)
+            return -1;
+        if (i < limit && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            int e = i + 1;
+            if (e < limit && (s.charAt(e) == '-' || s.charAt(e) == '+'))
+                e++;
+            int expStart = e;
+            while (e < limit && isDigit(s.charAt(e)))
+                e++;
+            if (e > expStart)
+                i = e;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Convert an accumulated mantissa without touching the text.
+     *
+     * @param digits count of significant digits, including any beyond the mantissa
+     * @param exp10 power of ten to apply to the mantissa
+     * @param integral true if the text had neither fraction nor exponent
+     * @return null if the value needs the exact text, see valueOf(String, boolean)
+     */
+    static Number valueOf(boolean negative, long mantissa, int digits, int exp10, boolean integral) {
+        if (integral) {
+            if (digits > MAX_MANTISSA_DIGITS)
+                return null;
+            long v = negative ? -mantissa : mantissa;
+            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                return (int) v;
+            return v;
+        }
+        double d = toDouble(mantissa, digits, exp10);
+        if (Double.isNaN(d))
+            return null;
+        return negative ? -d : d;
+    }
+
+    /**
+     * Primitive form of the decimal conversion in valueOf(boolean, long, int, int, boolean).
+     *
+     * @return NaN if the value needs the exact text
+     */
+    static double toDouble(long mantissa, int digits, int exp10) {
+        if (mantissa == 0)
+            return 0.0d;
+        if (digits <= MAX_FAST_DIGITS && exp10 >= -22 && exp10 <= 22) {
+            double d = mantissa;
+            return exp10 >= 0 ? d * POW10[exp10] : d / POW10[-exp10];
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Slow path for values valueOf(boolean, long, int, int, boolean) cannot decide.
+     * The text must already be a well-formed number.
+     * Exponents too large for a BigDecimal scale saturate as a double would:
+     * to a signed infinity, or to a signed zero for negative exponents.
+     */
+    static Number valueOf(String text, boolean integral) {
+        if (integral) {
+            BigDecimal big = new BigDecimal(text);
+            if (big.unscaledValue().bitLength() < 64)
+                return big.longValue();
+            return big;
+        }
+        // significant digits, ignoring leading and trailing zeros
+        int significant = 0;
+        int digits = 0;
+        int i = 0;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == 'e' || c == 'E')
+                break;
+            if ((c >= '1' && c <= '9') || (c == '0' && significant > 0)) {
+                significant++;
+                if (c != '0')
+                    digits = significant;
+            }
+        }
+        if (i < text.length() && exponentDigits(text, i + 1) > MAX_EXPONENT_DIGITS) {
+            boolean negative = text.charAt(0) == '-';
+            if (digits == 0 || text.charAt(i + 1) == '-')
+                return negative ? -0.0d : 0.0d;
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        if (digits > MAX_DOUBLE_DIGITS)
+            return new BigDecimal(text);
+        double d = Double.parseDouble(text);
+        if (Double.isInfinite(d) || (d == 0.0d && digits > 0))
+            return new BigDecimal(text);
+        return d;
+    }
+
+    /**
+     * @return the number of digits of the exponent starting at i, without its sign and leading zeros
+     */
+    private static int exponentDigits(String text, int i) {
+        if (i < text.length() && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+            i++;
+        while (i < text.length() - 1 && text.charAt(i) == '0')
+            i++;
+        return text.length() - i;
+    }
+}
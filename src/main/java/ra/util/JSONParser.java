@@ -1,15 +1,278 @@
 package ra.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
 import java.util.*;
 
+/**
+ * Parses JSON into trees of Maps, Lists, Strings, Numbers, Booleans and nulls.
+ *
+ * The byte[], ByteBuffer, Path, Reader, InputStream, channel and JSONReader entry points
+ * follow the RFC 8259 grammar and throw IllegalStateException on anything else.
+ * parse(String), read(String) and parseStream keep the original scanner, which is lenient and
+ * accepts text the other entry points reject:
+ * <ul>
+ * <li>missing commas between values and members, as in [1 2], and a comma right after '[' or '{'</li>
+ * <li>numbers with a leading '+', leading zeros, or a '.' without digits on one side, such as +1, 01, 1. and .5</li>
+ * <li>unescaped control characters inside strings, and any Character.isWhitespace between tokens</li>
+ * </ul>
+ * Well-formed JSON gives the same tree through every entry point. Convert the String to UTF-8
+ * and use parse(byte[], int, int) where malformed input must be rejected.
+ * All entry points return the first value and ignore what follows it; see NDJSONParser
+ * and JSONArrayParser for input holding several values.
+ */
 public class JSONParser {
 
+    private static final JSONParser DEFAULT = new JSONParser();
+    /** marks a container just opened by parse, with no value to add yet */
+    private static final Object OPENED = new Object();
+
+    private JSONSymbolTable keys;
+    private boolean primitiveArrays;
+    private boolean reuseContainers;
+    private boolean compactMaps;
+    private boolean lazyNumbers;
+
+    /**
+     * A parser instance carries options for its read methods; the static parse methods use the defaults.
+     * An instance is unsynchronized once an option keeping state between reads, such as key interning, is enabled.
+     */
+    public JSONParser()
+    {
+    }
+
+    /**
+     * Resolve repeated object keys to one canonical String per parser.
+     * Keys are looked up by their source range before a String is allocated,
+     * and the table is kept across reads, e.g. for every line of an NDJSON feed.
+     */
+    public JSONParser setInternKeys(boolean internKeys)
+    {
+        keys = internKeys ? new JSONSymbolTable() : null;
+        return this;
+    }
+
+    /**
+     * Return arrays holding only integers, or only decimals, as NumericList views over
+     * an int[], long[] or double[] instead of ArrayLists of boxed numbers.
+     */
+    public JSONParser setPrimitiveArrays(boolean primitiveArrays)
+    {
+        this.primitiveArrays = primitiveArrays;
+        return this;
+    }
+
+    /**
+     * Build trees from containers recycled through release(), pooled per thread,
+     * so steady-state parsing of similar documents allocates few new Maps and Lists.
+     */
+    public JSONParser setReuseContainers(boolean reuseContainers)
+    {
+        this.reuseContainers = reuseContainers;
+        return this;
+    }
+
+    /**
+     * Return objects as unmodifiable, insertion-ordered maps over one flat key/value array,
+     * hashed only beyond a handful of keys, which retain a fraction of a LinkedHashMap's heap.
+     */
+    public JSONParser setCompactMaps(boolean compactMaps)
+    {
+        this.compactMaps = compactMaps;
+        return this;
+    }
+
+    /**
+     * Return numbers as LazyNumbers over the source text, converted only when read through a Number
+     * method and written back verbatim. The source String or byte[] is retained by the tree and must
+     * not be changed while the numbers are in use. A LazyNumber only equals another LazyNumber,
+     * so the trees are not equal to those built without this option.
+     */
+    public JSONParser setLazyNumbers(boolean lazyNumbers)
+    {
+        this.lazyNumbers = lazyNumbers;
+        return this;
+    }
+
+    /**
+     * Hand the Maps and Lists of a tree this parser built back to the calling thread's pool
+     * for the following reads. Nothing in the tree may be used afterwards.
+     * Does nothing unless setReuseContainers is on.
+     */
+    public void release(Object tree)
+    {
+        if (reuseContainers)
+            JSONArena.get().release(tree);
+    }
+
+    /**
+     * Lenient like parse(String).
+     */
+    public Object read(String json)
+    {
+        if (json == null)
+            return null;
+        return parse(json, reuseContainers ? JSONArena.get().position() : new int[1]);
+    }
+
+    public Object read(byte[] utf8, int offset, int length)
+    {
+        if (utf8 == null)
+            return null;
+        return new UTF8JSONParser(utf8, offset, length, keys)
+                .setPrimitiveArrays(primitiveArrays)
+                .setCompactMaps(compactMaps)
+                .setLazyNumbers(lazyNumbers)
+                .setArena(reuseContainers || compactMaps ? JSONArena.get() : null)
+                .parse();
+    }
+
+    public Object read(ByteBuffer utf8)
+    {
+        if (utf8 == null)
+            return null;
+        if (utf8.hasArray())
+            return read(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+        byte[] b = new byte[utf8.remaining()];
+        utf8.duplicate().get(b);
+        return read(b, 0, b.length);
+    }
+
+    /**
+     * Build the next value from the reader, keeping open containers on an explicit stack as
+     * parse(String) does, so nesting is bounded by the heap rather than the thread stack.
+     * @return null at the end of the document
+     */
+    public Object read(JSONReader reader) throws IOException
+    {
+        // open containers, innermost last, with the key awaiting its value in each object
+        Object[] stack = null;
+        String[] pendingKeys = null;
+        int depth = 0;
+        while (true)
+        {
+            Object value;
+            JSONReader.Token token = reader.nextToken();
+            switch (token)
+            {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    if (stack == null)
+                    {
+                        stack = new Object[16];
+                        pendingKeys = new String[16];
+                    }
+                    else if (depth == stack.length)
+                    {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                        pendingKeys = Arrays.copyOf(pendingKeys, depth * 2);
+                    }
+                    stack[depth++] = token == JSONReader.Token.BEGIN_ARRAY ? newList() : newMap();
+                    value = OPENED;
+                    break;
+                case STRING:
+                    value = reader.getString();
+                    break;
+                case NUMBER:
+                    if (lazyNumbers)
+                    {
+                        String text = reader.getString();
+                        value = new LazyNumber(text, 0, text.length());
+                    }
+                    else
+                        value = reader.getNumber();
+                    break;
+                case BOOLEAN:
+                    value = reader.getBoolean() ? Boolean.TRUE : Boolean.FALSE;
+                    break;
+                case NULL:
+                case END_DOCUMENT:
+                    value = null;
+                    break;
+                default:
+                    throw new IllegalStateException("json unexpected token at "+reader.getPosition());
+            }
+
+            // hand the value to its container and close the containers that end here
+            while (true)
+            {
+                if (depth == 0)
+                    return value;
+                int top = depth - 1;
+                Object container = stack[top];
+                boolean isArray = container instanceof ArrayList;
+                if (value != OPENED)
+                {
+                    if (isArray)
+                        ((ArrayList) container).add(value);
+                    else
+                        ((Map) container).put(pendingKeys[top], value);
+                }
+
+                if (reader.hasNext())
+                {
+                    if (!isArray)
+                        pendingKeys[top] = reader.nextKey(keys);
+                    break;
+                }
+                if (isArray)
+                {
+                    reader.endArray();
+                    value = endArray((ArrayList) container);
+                }
+                else
+                {
+                    reader.endObject();
+                    value = endObject((Map) container);
+                }
+                stack[top] = null;
+                pendingKeys[top] = null;
+                depth--;
+            }
+        }
+    }
+
     public static Object parse(Path path) throws IOException {
-        return parse(new String(Files.readAllBytes(path)));
+        try (JSONReader reader = new JSONReader(Files.newInputStream(path)))
+        {
+            return parse(reader);
+        }
+    }
+
+    public static Object parse(Reader in) throws IOException
+    {
+        return parse(new JSONReader(in));
+    }
+
+    public static Object parse(InputStream in) throws IOException
+    {
+        return parse(new JSONReader(in));
+    }
+
+    public static Object parse(ReadableByteChannel in) throws IOException
+    {
+        return parse(new JSONReader(in));
+    }
+
+    /**
+     * Build the next value from the reader.
+     * @return null at the end of the document
+     */
+    public static Object parse(JSONReader reader) throws IOException
+    {
+        return DEFAULT.read(reader);
     }
 
     public static Object parse(Object json)
@@ -19,11 +282,111 @@ public class JSONParser {
         return parse(json.toString());
     }
 
+    /**
+     * Lenient: accepts some malformed text the other entry points reject, see the class comment.
+     */
     public static Object parse(String json)
+    {
+        return DEFAULT.read(json);
+    }
+
+    /**
+     * Parse UTF-8 encoded JSON without decoding the whole range to a String first.
+     */
+    public static Object parse(byte[] utf8, int offset, int length)
+    {
+        return DEFAULT.read(utf8, offset, length);
+    }
+
+    /**
+     * Parse the remaining UTF-8 encoded bytes of the buffer. The buffer's position is not changed.
+     * Heap buffers are read in place; direct buffers are copied out first.
+     */
+    public static Object parse(ByteBuffer utf8)
+    {
+        return DEFAULT.read(utf8);
+    }
+
+    /**
+     * Report the document to the handler as events instead of building a tree.
+     * Nothing is allocated per value for plain ASCII strings and numbers within long/double range.
+     * @return false if the range holds only whitespace
+     */
+    public static boolean parse(byte[] utf8, int offset, int length, JSONHandler handler)
+    {
+        return new UTF8JSONParser(utf8, offset, length, null).parse(handler);
+    }
+
+    /**
+     * Heap buffers are read in place; direct buffers are copied out first.
+     * The buffer's position is not changed.
+     */
+    public static boolean parse(ByteBuffer utf8, JSONHandler handler)
+    {
+        if (utf8.hasArray())
+            return parse(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining(), handler);
+        byte[] b = new byte[utf8.remaining()];
+        utf8.duplicate().get(b);
+        return parse(b, 0, b.length, handler);
+    }
+
+    public static boolean parse(String json, JSONHandler handler)
+    {
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        return parse(b, 0, b.length, handler);
+    }
+
+    /**
+     * Check that the range holds exactly one well-formed RFC 8259 value in valid UTF-8,
+     * without decoding or building anything.
+     * @return the offset of the first byte in error (the length if the input ends early), or -1 if valid
+     */
+    public static int validate(byte[] utf8, int offset, int length)
+    {
+        return JSONValidator.validate(utf8, offset, length);
+    }
+
+    /**
+     * Validate the remaining bytes in place; the buffer's position is not changed.
+     * @return the error offset relative to the position, or -1 if valid
+     */
+    public static int validate(ByteBuffer utf8)
+    {
+        return JSONValidator.validate(utf8);
+    }
+
+    /**
+     * Index the document in one structural pass and return read-only Map/List views over it
+     * that create children and decode strings and numbers only when they are accessed.
+     * Cheap when only a few fields of a large document are read.
+     * The views keep the source alive and are unsynchronized.
+     */
+    public static Object parseLazy(String json)
     {
         if (json == null)
             return null;
-        return parse(json, new int[1]);
+        return JSONTape.parse(json);
+    }
+
+    public static Object parseLazy(byte[] utf8, int offset, int length)
+    {
+        if (utf8 == null)
+            return null;
+        return JSONTape.parse(utf8, offset, length);
+    }
+
+    /**
+     * Heap buffers are indexed in place; direct buffers are copied out first.
+     */
+    public static Object parseLazy(ByteBuffer utf8)
+    {
+        if (utf8 == null)
+            return null;
+        if (utf8.hasArray())
+            return parseLazy(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+        byte[] b = new byte[utf8.remaining()];
+        utf8.duplicate().get(b);
+        return parseLazy(b, 0, b.length);
     }
 
     public static List<Object> parseStream(String json)
@@ -34,21 +397,114 @@ public class JSONParser {
         List<Object> res = new ArrayList<>();
         json = json.trim();
         while (pos[0] < json.length())
-            res.add(parse(json, pos));
+            res.add(DEFAULT.parse(json, pos));
         return res;
     }
 
     public static String toString(Object obj)
     {
-        StringBuffer buf = new StringBuffer();
-        toString(obj, buf);
+        StringBuilder buf = new StringBuilder();
+        try
+        {
+            new JSONWriter(buf).write(obj);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Serialize straight to the target without building the document as a String.
+     * Writers and other Appendables are not flushed or closed.
+     */
+    public static void write(Object obj, Appendable out) throws IOException
+    {
+        new JSONWriter(out).write(obj);
+    }
+
+    /**
+     * Serialize as UTF-8 straight to the stream. The stream is flushed, not closed.
+     */
+    public static void write(Object obj, OutputStream out) throws IOException
+    {
+        new JSONWriter(out).write(obj).flush();
+    }
+
+    /**
+     * Indented form, see JSONWriter.setIndent; written straight from the tree, not re-parsed.
+     */
+    public static String toPrettyString(Object obj, int indent)
+    {
+        StringBuilder buf = new StringBuilder();
+        try
+        {
+            new JSONWriter(buf).setIndent(indent).write(obj);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
         return buf.toString();
     }
 
+    /**
+     * Canonical form, see JSONWriter.setCanonical: equal trees give identical strings.
+     */
+    public static String toCanonicalString(Object obj)
+    {
+        StringBuilder buf = new StringBuilder();
+        try
+        {
+            new JSONWriter(buf).setCanonical(true).write(obj);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Hash the canonical UTF-8 form in a single pass, without building it as a String or byte[].
+     * @return md.digest() of the canonical form; the digest is reset
+     */
+    public static byte[] digest(Object obj, MessageDigest md)
+    {
+        try
+        {
+            new JSONWriter(md).setCanonical(true).write(obj).flush();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return md.digest();
+    }
+
+    /**
+     * Feed the canonical UTF-8 form to an initialized Signature; call sign() or verify() afterwards.
+     */
+    public static void update(Object obj, Signature signature) throws SignatureException
+    {
+        try
+        {
+            new JSONWriter(signature).setCanonical(true).write(obj).flush();
+        }
+        catch (IOException e)
+        {
+            if (e.getCause() instanceof SignatureException)
+                throw (SignatureException) e.getCause();
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static String stripWhitespace(String src)
     {
         boolean inQuote = false, isEscaped = false;
-        StringBuffer buf = new StringBuffer();
+        StringBuilder buf = new StringBuilder(src.length());
+        int run = 0;
 
         for (int i=0; i<src.length(); i++)
         {
@@ -62,60 +518,137 @@ public class JSONParser {
                     isEscaped = false;
                 }
                 else if (Character.isWhitespace(ch))
-                    continue;
+                {
+                    buf.append(src, run, i);
+                    run = i + 1;
+                }
             }
-            else if (inQuote)
+            else
             {
                 if (ch == '\\')
                     isEscaped = !isEscaped;
                 else if ((ch == '"') && !isEscaped)
                     inQuote = false;
+                else
+                    isEscaped = false;
             }
-
-            buf.append(ch);
         }
 
-        return buf.toString();
+        return buf.append(src, run, src.length()).toString();
+    }
+
+    /**
+     * Minify UTF-8 JSON from in to out in constant memory, dropping JSON whitespace outside strings.
+     * The input is not validated. Neither stream is closed; out is flushed.
+     */
+    public static void stripWhitespace(InputStream in, OutputStream out) throws IOException
+    {
+        JSONMinifier.minify(in, out);
+    }
+
+    /**
+     * Minify the remaining UTF-8 bytes of src into dst, advancing both positions.
+     * Heap buffers may be views of the same array, even overlapping; direct buffers must not overlap.
+     * @throws java.nio.BufferOverflowException if dst has no room for the result
+     */
+    public static void stripWhitespace(ByteBuffer src, ByteBuffer dst)
+    {
+        JSONMinifier.minify(src, dst);
     }
 
+    /**
+     * @param path dotted/indexed path, e.g. "order.items[2].sku"; compiled paths are cached
+     * @return null if the tree does not have the expected shape or an index is out of range
+     */
     public static Object getValue(Object json, String path)
     {
-        String[] parts = path.split("\\.");
+        return JSONPath.cached(path).get(json);
+    }
+
+    public static Object getValue(Object json, JSONPath path)
+    {
+        return path.get(json);
+    }
 
-        for (int i=0; i<parts.length; i++)
+    /**
+     * Read only the values at the given paths, in getValue syntax, skipping every unrelated
+     * subtree at the tokenizer level and stopping once all paths are resolved.
+     *
+     * @return the values in the order of paths; null where a path does not resolve
+     */
+    public static Object[] extract(String json, String... paths)
+    {
+        try
+        {
+            return extract(new JSONReader(new StringReader(json)), paths);
+        }
+        catch (IOException e)
         {
-            int index = -1;
-            String key = parts[i];
+            throw new IllegalStateException(e);
+        }
+    }
 
-            if (key.endsWith("]"))
-            {
-                int b = key.indexOf("[");
-                try
-                {
-                    index = Integer.parseInt(key.substring(b+1, key.length()-1));
-                    key = key.substring(0, b);
-                }
-                catch (Exception e)
-                {
-                    throw new IllegalStateException("Path syntax error - invalid index");
-                }
-            }
+    public static Object[] extract(byte[] utf8, int offset, int length, String... paths)
+    {
+        try
+        {
+            return extract(new JSONReader(new ByteArrayInputStream(utf8, offset, length)), paths);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
 
-            if ((json != null) && (json instanceof Map))
-                json = ((Map) json).get(key);
-            else
-                return null;
+    public static Object[] extract(Reader in, String... paths) throws IOException
+    {
+        return extract(new JSONReader(in), paths);
+    }
 
-            if (index >= 0)
-            {
-                if ((json != null) && (json instanceof List))
-                    json = ((List) json).get(index);
-                else
-                    return null;
-            }
-        }
+    public static Object[] extract(JSONReader reader, String... paths) throws IOException
+    {
+        JSONPath[] compiled = new JSONPath[paths.length];
+        for (int i=0; i<paths.length; i++)
+            compiled[i] = JSONPath.cached(paths[i]);
+        return JSONPath.extract(reader, compiled);
+    }
 
-        return json;
+    /**
+     * @return the map to fill, a pooled scratch map if setCompactMaps is on
+     */
+    private Map newMap()
+    {
+        return reuseContainers || compactMaps ? JSONArena.get().map() : new LinkedHashMap();
+    }
+
+    /**
+     * Apply setCompactMaps to a completed object.
+     */
+    private Map endObject(Map map)
+    {
+        if (!compactMaps)
+            return map;
+        Map compact = CompactMap.of(map);
+        JSONArena.get().recycle((LinkedHashMap) map);
+        return compact;
+    }
+
+    private ArrayList newList()
+    {
+        return reuseContainers ? JSONArena.get().list() : new ArrayList();
+    }
+
+    /**
+     * Apply setPrimitiveArrays to a completed array.
+     */
+    private List endArray(ArrayList list)
+    {
+        if (!primitiveArrays)
+            return list;
+        List compact = NumericList.compact(list);
+        if (compact != list && reuseContainers)
+            JSONArena.get().recycle(list);
+        return compact;
     }
 
     private static char skipSpaces(String json, int[] pos)
@@ -151,310 +684,275 @@ public class JSONParser {
 
     private static Number parseNumber(String json, int[] pos)
     {
-        int endPos = json.length();
         int startPos = pos[0];
-
-        boolean foundExp = false;
-        boolean foundDot = false;
-        boolean allowPM = true;
-        for (int i=startPos; i<endPos; i++)
-        {
-            char ch = json.charAt(i);
-            if ((ch == 'e') || (ch == 'E'))
-            {
-                if (foundExp)
-                    return null;
-                allowPM = true;
-                foundExp = true;
-                continue;
-            }
-
-            if ((ch == '+') || (ch == '-'))
-            {
-                if (allowPM)
-                {
-                    allowPM = false;
-                    ch = skipSpaces(json, pos);
-                    if (ch == 0)
-                        return null;
-                    else
-                        continue;
-                }
-                else
-                    return null;
-            }
-
-            allowPM = false;
-            if (ch == '.')
-            {
-                if (foundDot)
-                    return null;
-                foundDot = true;
-                continue;
-            }
-
-            if (!Character.isDigit(json.charAt(i)))
-            {
-                pos[0] = endPos = i;
-                break;
-            }
-        }
-
-        if (startPos == endPos)
+        Number result = JSONNumber.parse(json, pos, json.length());
+        if (result == null)
             return null;
-
-        String numericString = json.substring(startPos, endPos);
-        try
-        {
-            return Integer.parseInt(numericString);
-        }
-        catch (Exception e) {}
-
-        try
-        {
-            return Long.parseLong(numericString);
-        }
-        catch (Exception e) {}
-
-        try
-        {
-            return Double.parseDouble(numericString);
-        }
-        catch (Exception e) {}
-
-        throw new IllegalStateException("Failed to parse JSON number at "+startPos+" '"+numericString+"'");
+        checkNumberEnd(json, startPos, pos[0]);
+        return result;
     }
 
-    private static List parseArray(String json, int[] pos)
+    private static Number parseLazyNumber(String json, int[] pos)
     {
-        int start = pos[0];
-        if (json.charAt(start) != '[')
+        int startPos = pos[0];
+        int endPos = JSONNumber.scan(json, startPos, json.length());
+        if (endPos < 0)
             return null;
-        pos[0]++;
+        checkNumberEnd(json, startPos, endPos);
+        if (!isStrictNumber(json, startPos, endPos))
+            return parseNumber(json, pos);
+        pos[0] = endPos;
+        return new LazyNumber(json, startPos, endPos);
+    }
 
-        ArrayList result = new ArrayList();
-        while (true)
-        {
-            char ch = skipSpaces(json, pos);
-            if (ch == 0)
-                break;
-            else if (ch == ']')
-            {
-                pos[0]++;
-                return result;
-            }
-            else if (ch == ',')
-            {
-                pos[0]++;
-                if (skipSpaces(json, pos) == 0)
-                    break;
-            }
+    /**
+     * Whether a number the lenient scan accepted is also written as RFC 8259 requires,
+     * and so can be copied verbatim; leading '+' or zeros and bare '.' are not.
+     */
+    private static boolean isStrictNumber(String json, int start, int end)
+    {
+        int i = start;
+        if (json.charAt(i) == '-')
+            i++;
+        if (i == end || json.charAt(i) < '0' || json.charAt(i) > '9')
+            return false;
+        if (json.charAt(i) == '0' && i+1 < end && json.charAt(i+1) >= '0' && json.charAt(i+1) <= '9')
+            return false;
+        int dot = json.indexOf('.', i);
+        if (dot < 0 || dot >= end)
+            return true;
+        return dot+1 < end && json.charAt(dot+1) >= '0' && json.charAt(dot+1) <= '9';
+    }
 
-            Object val = parse(json, pos);
-            result.add(val);
+    private static void checkNumberEnd(String json, int startPos, int endPos)
+    {
+        if (endPos < json.length())
+        {
+            char ch = json.charAt(endPos);
+            if (Character.isDigit(ch) || (ch == '.') || (ch == 'e') || (ch == 'E') || (ch == '+') || (ch == '-'))
+                throw new IllegalStateException("Failed to parse JSON number at "+startPos+" '"+json.substring(startPos, endPos+1)+"'");
         }
-        throw new IllegalStateException("json Array format at "+start+" ["+(pos[0]-start)+"]  '"+json.substring(start)+"'");
     }
 
-    private static Map parseObject(String json, int[] pos)
+    private String parseKey(String json, int[] pos)
     {
-        int start = pos[0];
-        if (json.charAt(start) != '{')
+        if (keys == null)
+            return parseString(json, pos);
+        int startPos = pos[0];
+        if (json.charAt(startPos) != '"')
             return null;
-        pos[0]++;
-
-        Map result = new LinkedHashMap();
-        while (true)
+        for (int i=startPos+1; i<json.length(); i++)
         {
-            char ch = skipSpaces(json, pos);
-            if (ch == 0)
-                break;
-            else if (ch == '}')
+            char ch = json.charAt(i);
+            if (ch == '"')
             {
-                pos[0]++;
-                return result;
+                pos[0] = i+1;
+                return keys.lookup(json, startPos+1, i);
             }
-            else if (ch == ',')
+            if (ch == '\\')
             {
-                pos[0]++;
-                if (skipSpaces(json, pos) == 0)
-                    break;
+                String key = parseEscapedString(json, pos, i);
+                return keys.lookup(key, 0, key.length());
             }
-
-            String key = parseString(json, pos);
-            ch = skipSpaces(json, pos);
-            if (ch == 0)
-                break;
-
-            pos[0]++;
-            if (ch != ':')
-                break;
-
-            Object val = parse(json, pos);
-            result.put(key, val);
         }
-        throw new IllegalStateException("json Object format at "+pos[0]+"  ["+start+", "+json.length()+"]  '"+json.substring(pos[0])+"'");
+        throw new IllegalStateException("json string at at "+startPos+"  '"+json+"'");
     }
 
+    /**
+     * Strings without escapes are taken as one substring; escapes are decoded only when present.
+     */
     private static String parseString(String json, int[] pos)
     {
         int startPos = pos[0];
         if (json.charAt(startPos) != '"')
             return null;
-        pos[0]++;
+        int endPos = json.indexOf('"', startPos+1);
+        if (endPos < 0)
+            throw new IllegalStateException("json string at at "+startPos+"  '"+json+"'");
+        for (int i=startPos+1; i<endPos; i++)
+        {
+            if (json.charAt(i) == '\\')
+                return parseEscapedString(json, pos, i);
+        }
+        pos[0] = endPos+1;
+        return json.substring(startPos+1, endPos);
+    }
 
-        boolean isEscape = false;
-        for (int i=startPos+1; i<json.length(); i++)
+    /**
+     * Decode the string at pos[0] whose first escape is at escapePos, copying the runs between escapes in bulk.
+     */
+    private static String parseEscapedString(String json, int[] pos, int escapePos)
+    {
+        int startPos = pos[0];
+        StringBuilder buf = new StringBuilder(escapePos - startPos + 16);
+        int run = startPos+1;
+        for (int i=escapePos; i<json.length(); i++)
         {
             char ch = json.charAt(i);
-            if (ch == '\\')
+            if (ch == '"')
             {
-                isEscape = !isEscape;
-                continue;
+                buf.append(json, run, i);
+                pos[0] = i+1;
+                return buf.toString();
             }
+            if (ch != '\\')
+                continue;
 
-            if (ch == '"')
+            buf.append(json, run, i);
+            if (++i >= json.length())
+                break;
+            ch = json.charAt(i);
+            switch (ch)
             {
-                if (!isEscape)
-                {
-                    pos[0] = i+1;
-                    return json.substring(startPos+1, i);
-                }
+                case '"': case '\\': case '/': buf.append(ch); break;
+                case 'b': buf.append('\b'); break;
+                case 'f': buf.append('\f'); break;
+                case 'n': buf.append('\n'); break;
+                case 'r': buf.append('\r'); break;
+                case 't': buf.append('\t'); break;
+                case 'u':
+                    if (i+4 >= json.length())
+                        throw new IllegalStateException("json malformed unicode escape at "+(i-1));
+                    int v = 0;
+                    for (int j=1; j<=4; j++)
+                    {
+                        int d = Character.digit(json.charAt(i+j), 16);
+                        if (d < 0)
+                            throw new IllegalStateException("json malformed unicode escape at "+(i-1));
+                        v = (v << 4) | d;
+                    }
+                    buf.append((char) v);
+                    i += 4;
+                    break;
+                default:
+                    throw new IllegalStateException("json invalid escape '\\"+ch+"' at "+(i-1));
             }
-
-            isEscape = false;
+            run = i+1;
         }
-
         throw new IllegalStateException("json string at at "+startPos+"  '"+json+"'");
     }
 
-    private static Object parse(String json, int[] pos)
+    /**
+     * Parse the value at pos[0] and everything it contains without recursion: open containers
+     * are kept on an explicit stack, so nesting is bounded by the heap rather than the thread stack.
+     * @return null if only whitespace is left
+     */
+    private Object parse(String json, int[] pos)
     {
         char ch = skipSpaces(json, pos);
         if (ch == 0)
             return null;
-        int startPos = pos[0];
-        if (startPos == json.length())
-            return null;
-
-        Object result = parseArray(json, pos);
-        if (result != null)
-            return result;
-
-        result = parseObject(json, pos);
-        if (result != null)
-            return result;
-
-        result = parseBoolean(json, pos);
-        if (result != null)
-            return result;
-
-        result = parseString(json, pos);
-        if (result != null)
-            return result;
-
-        result = parseNumber(json, pos);
-        if (result != null)
-            return result;
-
-        if (json.regionMatches(pos[0], "null", 0, 4))
-        {
-            pos[0] += 4;
-            return null;
-        }
 
-        throw new IllegalStateException("json object at at "+startPos+"  '"+json+"'");
-    }
-
-    private static void escapeString(String s, StringBuffer buf)
-    {
-        buf.append('"');
-        for (int i=0; i<s.length(); i++)
-        {
-            char ch = s.charAt(i);
-            if ((ch == '"') || (ch == '\\'))
-                buf.append('\\');
-            buf.append(ch);
-        }
-        buf.append('"');
-    }
-
-    private static void toString(Object obj, StringBuffer buf)
-    {
-        if (obj == null)
-            buf.append("null");
-        else if ((obj instanceof Boolean) || (obj instanceof Number))
-            buf.append(obj.toString());
-        else if (obj instanceof Map)
+        // open containers, innermost last, with the key awaiting its value in each object
+        // and where each container began
+        Object[] stack = null;
+        String[] pendingKeys = null;
+        int[] starts = null;
+        int depth = 0;
+        while (true)
         {
-            Map m = (Map) obj;
-            boolean first = true;
-            Iterator itt = m.keySet().iterator();
-
-            buf.append('{');
-            while (itt.hasNext())
+            // dispatch once on the first character of the value
+            Object value;
+            int startPos = pos[0];
+            switch (ch)
             {
-                if (!first)
-                    buf.append(',');
-
-                String s = (String) itt.next();
-                Object val = m.get(s);
-                escapeString(s, buf);
-                buf.append(":");
-                toString(val, buf);
-                first = false;
+                case '[':
+                case '{':
+                    if (stack == null)
+                    {
+                        stack = new Object[16];
+                        pendingKeys = new String[16];
+                        starts = new int[16];
+                    }
+                    else if (depth == stack.length)
+                    {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                        pendingKeys = Arrays.copyOf(pendingKeys, depth * 2);
+                        starts = Arrays.copyOf(starts, depth * 2);
+                    }
+                    stack[depth] = ch == '[' ? newList() : newMap();
+                    starts[depth++] = startPos;
+                    pos[0]++;
+                    value = OPENED;
+                    break;
+                case '"':
+                    value = parseString(json, pos);
+                    break;
+                case 't':
+                case 'f':
+                    value = parseBoolean(json, pos);
+                    if (value == null)
+                        throw valueError(json, startPos);
+                    break;
+                case 'n':
+                    if (!json.regionMatches(startPos, "null", 0, 4))
+                        throw valueError(json, startPos);
+                    pos[0] += 4;
+                    value = null;
+                    break;
+                default:
+                    value = lazyNumbers ? parseLazyNumber(json, pos) : parseNumber(json, pos);
+                    if (value == null)
+                        throw valueError(json, startPos);
             }
-            buf.append('}');
-        }
-        else if (obj instanceof Object[])
-        {
-            Object[] l = (Object[]) obj;
-            boolean first = true;
 
-            buf.append('[');
-            for (int i=0; i<l.length; i++)
+            // hand the value to its container and close the containers that end here,
+            // up to the start of the next value
+            while (true)
             {
-                if (!first)
-                    buf.append(',');
+                if (depth == 0)
+                    return value;
+                int top = depth - 1;
+                Object container = stack[top];
+                boolean isArray = container instanceof ArrayList;
+                if (value != OPENED)
+                {
+                    if (isArray)
+                        ((ArrayList) container).add(value);
+                    else
+                        ((Map) container).put(pendingKeys[top], value);
+                }
 
-                toString(l[i], buf);
-                first = false;
+                ch = skipSpaces(json, pos);
+                if (ch == (isArray ? ']' : '}'))
+                {
+                    pos[0]++;
+                    value = isArray ? endArray((ArrayList) container) : endObject((Map) container);
+                    stack[top] = null;
+                    depth--;
+                    continue;
+                }
+                if (ch == ',')
+                {
+                    pos[0]++;
+                    ch = skipSpaces(json, pos);
+                }
+                if (ch == 0)
+                    throw formatError(json, isArray, starts[top], pos);
+                if (!isArray)
+                {
+                    pendingKeys[top] = parseKey(json, pos);
+                    if (skipSpaces(json, pos) != ':')
+                        throw formatError(json, false, starts[top], pos);
+                    pos[0]++;
+                    ch = skipSpaces(json, pos);
+                    if (ch == 0)
+                        throw formatError(json, false, starts[top], pos);
+                }
+                break;
             }
-            buf.append(']');
         }
-        else if (obj instanceof List)
-        {
-            List l = (List) obj;
-            boolean first = true;
-            Iterator itt = l.iterator();
+    }
 
-            buf.append('[');
-            while (itt.hasNext())
-            {
-                if (!first)
-                    buf.append(',');
+    private static IllegalStateException valueError(String json, int startPos)
+    {
+        return new IllegalStateException("json object at at "+startPos+"  '"+json+"'");
+    }
 
-                Object val = itt.next();
-                toString(val, buf);
-                first = false;
-            }
-            buf.append(']');
-        }
-        else if (obj instanceof String)
-            escapeString(obj.toString(), buf);
-        else
-        {
-            try
-            {
-                Class cls = obj.getClass();
-                Method m = cls.getDeclaredMethod("toJSON", new Class[0]);
-                Object jsonObj = m.invoke(obj, new Object[0]);
-                buf.append(toString(jsonObj));
-            }
-            catch (Exception e)
-            {
-                escapeString(obj.toString(), buf);
-            }
-        }
+    private static IllegalStateException formatError(String json, boolean isArray, int start, int[] pos)
+    {
+        if (isArray)
+            return new IllegalStateException("json Array format at "+start+" ["+(pos[0]-start)+"]  '"+json.substring(start)+"'");
+        return new IllegalStateException("json Object format at "+pos[0]+"  ["+start+", "+json.length()+"]  '"+json.substring(pos[0])+"'");
     }
 }
@@ -0,0 +1,234 @@
+package ra.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled path into a parsed JSON tree in the dotted/indexed syntax of JSONParser.getValue,
+ * e.g. "order.items[2].sku". Compile constant paths once and reuse them; following
+ * a compiled path is an allocation-free loop over its steps.
+ * Immutable and thread safe.
+ */
+public final class JSONPath {
+
+    /** bound on the paths cached for JSONParser.getValue(Object, String) */
+    private static final int MAX_CACHED = 256;
+
+    private static final ConcurrentHashMap<String, JSONPath> _cache = new ConcurrentHashMap<String, JSONPath>(64);
+
+    private final String path;
+    /** key of each step, null for an index step */
+    private final String[] keys;
+    /** index of each step, -1 for a key step */
+    private final int[] indexes;
+
+    private JSONPath(String path, String[] keys, int[] indexes) {
+        this.path = path;
+        this.keys = keys;
+        this.indexes = indexes;
+    }
+
+    /**
+     * @throws IllegalStateException on an invalid index
+     */
+    public static JSONPath compile(String path) {
+        // parts as String.split("\\.") gives them, without the regex
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '.') {
+                parts.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (parts.size() > 1) {
+            while (!parts.isEmpty() && parts.get(parts.size() - 1).isEmpty())
+                parts.remove(parts.size() - 1);
+        }
+
+        List<String> keys = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (String key : parts) {
+            int index = -1;
+            if (key.endsWith("]")) {
+                int b = key.indexOf('[');
+                index = parseIndex(key, b + 1, key.length() - 1);
+                key = key.substring(0, b);
+            }
+            keys.add(key);
+            indexes.add(-1);
+            if (index >= 0) {
+                keys.add(null);
+                indexes.add(index);
+            }
+        }
+        int[] x = new int[indexes.size()];
+        for (int i = 0; i < x.length; i++)
+            x[i] = indexes.get(i);
+        return new JSONPath(path, keys.toArray(new String[keys.size()]), x);
+    }
+
+    /**
+     * Compile through a bounded cache, for callers handing over the same few path strings repeatedly.
+     */
+    static JSONPath cached(String path) {
+        JSONPath p = _cache.get(path);
+        if (p == null) {
+            p = compile(path);
+            if (_cache.size() >= MAX_CACHED)
+                _cache.clear();
+            _cache.putIfAbsent(path, p);
+        }
+        return p;
+    }
+
+    private static int parseIndex(String s, int start, int end) {
+        if (start <= 0 || start >= end)
+            throw new IllegalStateException("Path syntax error - invalid index");
+        int v = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9' || v > (Integer.MAX_VALUE - 9) / 10)
+                throw new IllegalStateException("Path syntax error - invalid index");
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    int length() {
+        return keys.length;
+    }
+
+    /**
+     * Follow the path through a Map/List tree.
+     * @return null if the tree does not have the expected shape or an index is out of range
+     */
+    public Object get(Object json) {
+        return get(json, 0);
+    }
+
+    /**
+     * Follow the path from the given step through a Map/List tree.
+     * @return null if the tree does not have the expected shape or an index is out of range
+     */
+    Object get(Object json, int from) {
+        for (int i = from; i < keys.length; i++) {
+            if (keys[i] != null) {
+                if (json instanceof Map)
+                    json = ((Map) json).get(keys[i]);
+                else
+                    return null;
+            } else {
+                if ((json instanceof List) && (indexes[i] < ((List) json).size()))
+                    json = ((List) json).get(indexes[i]);
+                else
+                    return null;
+            }
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Read only the values at the given paths, skipping everything else at the token level.
+     * Stops reading as soon as every path has been resolved.
+     *
+     * @return the values in path order; null where a path does not resolve
+     */
+    static Object[] extract(JSONReader reader, JSONPath[] paths) throws IOException {
+        Object[] results = new Object[paths.length];
+        if (paths.length == 0 || reader.peek() == JSONReader.Token.END_DOCUMENT)
+            return results;
+        int[] active = new int[paths.length];
+        for (int i = 0; i < active.length; i++)
+            active[i] = i;
+        new Extraction(reader, paths, results).visit(active, active.length, 0);
+        return results;
+    }
+
+    private static final class Extraction {
+
+        private final JSONReader reader;
+        private final JSONPath[] paths;
+        private final Object[] results;
+        /** per step scratch for the paths still matching */
+        private final int[][] matching;
+        private final boolean[] resolved;
+        private int remaining;
+
+        Extraction(JSONReader reader, JSONPath[] paths, Object[] results) {
+            this.reader = reader;
+            this.paths = paths;
+            this.results = results;
+            int max = 0;
+            for (JSONPath p : paths)
+                max = Math.max(max, p.length());
+            matching = new int[max + 1][];
+            resolved = new boolean[paths.length];
+            remaining = paths.length;
+        }
+
+        /**
+         * @return false once every path is resolved and reading can stop
+         */
+        boolean visit(int[] active, int count, int step) throws IOException {
+            for (int i = 0; i < count; i++) {
+                if (paths[active[i]].length() == step) {
+                    // some path ends here: build this value once and resolve every active path from it
+                    Object value = JSONParser.parse(reader);
+                    for (int j = 0; j < count; j++) {
+                        results[active[j]] = paths[active[j]].get(value, step);
+                        if (!resolved[active[j]]) {
+                            resolved[active[j]] = true;
+                            remaining--;
+                        }
+                    }
+                    return remaining > 0;
+                }
+            }
+
+            int[] sub = matching[step + 1];
+            if (sub == null)
+                sub = matching[step + 1] = new int[paths.length];
+            JSONReader.Token t = reader.peek();
+            if (t == JSONReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.nextToken() == JSONReader.Token.KEY) {
+                    int n = 0;
+                    for (int i = 0; i < count; i++) {
+                        String key = paths[active[i]].keys[step];
+                        if (key != null && reader.textEquals(key))
+                            sub[n++] = active[i];
+                    }
+                    if (n == 0)
+                        reader.skipValue();
+                    else if (!visit(sub, n, step + 1))
+                        return false;
+                }
+            } else if (t == JSONReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int index = 0; reader.hasNext(); index++) {
+                    int n = 0;
+                    for (int i = 0; i < count; i++) {
+                        if (paths[active[i]].indexes[step] == index)
+                            sub[n++] = active[i];
+                    }
+                    if (n == 0)
+                        reader.skipValue();
+                    else if (!visit(sub, n, step + 1))
+                        return false;
+                }
+                reader.endArray();
+            } else
+                reader.skipValue();
+            return true;
+        }
+    }
+}
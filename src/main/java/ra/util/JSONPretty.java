@@ -1,47 +1,225 @@
 package ra.util;
 
-public class JSONPretty {
-
-    public static String toPretty(final String json, final int indention) {
-        final char[] chars = json.toCharArray();
-        final String newline = System.lineSeparator();
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
-        StringBuilder sb = new StringBuilder();
-        boolean begin_quotes = false;
+/**
+ * Re-indents JSON text in a single streaming pass: one member or element per line, ": " after keys,
+ * empty containers kept as {} and []. Whitespace outside strings is dropped, everything else is copied
+ * as is; the input is not validated. To indent a tree rather than text, see JSONWriter.setIndent.
+ */
+public class JSONPretty {
 
-        for (int i = 0, indent = 0; i < chars.length; i++) {
-            char c = chars[i];
+    private static final int BUFFER_SIZE = 8192;
 
-            if (c == '\"') {
-                sb.append(c);
-                begin_quotes = !begin_quotes;
-                continue;
-            }
+    public static String toPretty(final String json, final int indention) {
+        StringWriter out = new StringWriter(json.length() + (json.length() >> 1));
+        try {
+            print(new StringReader(json), out, indention);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
 
-            if (!begin_quotes) {
+    /**
+     * Stream the re-indented text of in to out. Neither is closed; out is not flushed.
+     */
+    public static void print(Reader in, Writer out, int indention) throws IOException {
+        Indents indents = new Indents(indention);
+        char[] buf = new char[BUFFER_SIZE];
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        // a container was opened and its first line is not yet broken
+        boolean open = false;
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            // start of the chars still to be copied
+            int run = 0;
+            for (int i = 0; i < n; i++) {
+                char c = buf[i];
+                if (inString) {
+                    if (escaped)
+                        escaped = false;
+                    else if (c == '\\')
+                        escaped = true;
+                    else if (c == '"')
+                        inString = false;
+                    continue;
+                }
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    out.write(buf, run, i - run);
+                    run = i + 1;
+                    continue;
+                }
+                if (open) {
+                    open = false;
+                    out.write(buf, run, i - run);
+                    run = i;
+                    if (c == '}' || c == ']') {
+                        depth--;
+                        continue;
+                    }
+                    out.write(indents.chars(depth));
+                }
                 switch (c) {
+                    case '"':
+                        inString = true;
+                        break;
                     case '{':
                     case '[':
-                        sb.append(c + newline + String.format("%" + (indent += indention) + "s", ""));
-                        continue;
+                        depth++;
+                        open = true;
+                        break;
                     case '}':
                     case ']':
-                        sb.append(newline + ((indent -= indention) > 0 ? String.format("%" + indent + "s", "") : "") + c);
-                        continue;
+                        out.write(buf, run, i - run);
+                        run = i;
+                        if (depth > 0)
+                            depth--;
+                        out.write(indents.chars(depth));
+                        break;
+                    case ',':
+                        out.write(buf, run, i + 1 - run);
+                        run = i + 1;
+                        out.write(indents.chars(depth));
+                        break;
                     case ':':
-                        sb.append(c + " ");
+                        out.write(buf, run, i + 1 - run);
+                        run = i + 1;
+                        out.write(' ');
+                        break;
+                    default:
+                }
+            }
+            out.write(buf, run, n - run);
+        }
+    }
+
+    /**
+     * UTF-8 to UTF-8 without decoding: every byte JSON structure depends on is ASCII,
+     * which never occurs inside a multi-byte sequence. Neither stream is closed; out is flushed.
+     */
+    public static void print(InputStream in, OutputStream out, int indention) throws IOException {
+        Indents indents = new Indents(indention);
+        OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        byte[] buf = new byte[BUFFER_SIZE];
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        boolean open = false;
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            int run = 0;
+            for (int i = 0; i < n; i++) {
+                byte c = buf[i];
+                if (inString) {
+                    if (escaped)
+                        escaped = false;
+                    else if (c == '\\')
+                        escaped = true;
+                    else if (c == '"')
+                        inString = false;
+                    continue;
+                }
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    buffered.write(buf, run, i - run);
+                    run = i + 1;
+                    continue;
+                }
+                if (open) {
+                    open = false;
+                    buffered.write(buf, run, i - run);
+                    run = i;
+                    if (c == '}' || c == ']') {
+                        depth--;
                         continue;
+                    }
+                    buffered.write(indents.bytes(depth));
+                }
+                switch (c) {
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        open = true;
+                        break;
+                    case '}':
+                    case ']':
+                        buffered.write(buf, run, i - run);
+                        run = i;
+                        if (depth > 0)
+                            depth--;
+                        buffered.write(indents.bytes(depth));
+                        break;
                     case ',':
-                        sb.append(c + newline + (indent > 0 ? String.format("%" + indent + "s", "") : ""));
-                        continue;
+                        buffered.write(buf, run, i + 1 - run);
+                        run = i + 1;
+                        buffered.write(indents.bytes(depth));
+                        break;
+                    case ':':
+                        buffered.write(buf, run, i + 1 - run);
+                        run = i + 1;
+                        buffered.write(' ');
+                        break;
                     default:
-                        if (Character.isWhitespace(c)) continue;
                 }
             }
+            buffered.write(buf, run, n - run);
+        }
+        buffered.flush();
+    }
+
+    /**
+     * Line separator plus the indentation of each depth, built once per depth.
+     * Unsynchronized.
+     */
+    static final class Indents {
+
+        private final int width;
+        private String[] chars = new String[16];
+        private byte[][] bytes = new byte[16][];
+
+        Indents(int width) {
+            this.width = width;
+        }
 
-            sb.append(c + (c == '\\' ? "" + chars[++i] : ""));
+        String chars(int depth) {
+            if (depth >= chars.length) {
+                String[] c = new String[Math.max(depth + 1, chars.length * 2)];
+                System.arraycopy(chars, 0, c, 0, chars.length);
+                chars = c;
+            }
+            String s = chars[depth];
+            if (s == null) {
+                StringBuilder buf = new StringBuilder(System.lineSeparator());
+                for (int i = depth * width; i > 0; i--)
+                    buf.append(' ');
+                s = chars[depth] = buf.toString();
+            }
+            return s;
         }
 
-        return sb.toString();
+        byte[] bytes(int depth) {
+            if (depth >= bytes.length) {
+                byte[][] b = new byte[Math.max(depth + 1, bytes.length * 2)][];
+                System.arraycopy(bytes, 0, b, 0, bytes.length);
+                bytes = b;
+            }
+            byte[] b = bytes[depth];
+            if (b == null)
+                b = bytes[depth] = chars(depth).getBytes(StandardCharsets.US_ASCII);
+            return b;
+        }
     }
 }
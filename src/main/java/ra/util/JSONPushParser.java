@@ -0,0 +1,391 @@
+package ra.util;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking, resumable JSON parser for input arriving in arbitrary chunks, e.g. from NIO reads.
+ *
+ * Feed UTF-8 chunks as they arrive; every complete top-level value is handed to the consumer
+ * as soon as its last byte has been fed. Partially read containers are built up in place and
+ * only the token split by a chunk boundary is buffered, so the input is never held as a whole.
+ * A top-level number is only known to be complete on the next byte or on end().
+ * Multiple top-level values are allowed. Object keys are interned per parser.
+ * Unsynchronized.
+ */
+public class JSONPushParser {
+
+    private static final int VALUE = 0;
+    private static final int ARRAY_FIRST = 1;
+    private static final int OBJECT_FIRST = 2;
+    private static final int KEY = 3;
+    private static final int COLON = 4;
+    private static final int AFTER_VALUE = 5;
+    private static final int IN_STRING = 6;
+    private static final int IN_NUMBER = 7;
+    private static final int IN_LITERAL = 8;
+
+    private final Consumer<Object> consumer;
+    private final JSONSymbolTable keys = new JSONSymbolTable();
+
+    private int state = VALUE;
+    /** open containers, Map or List */
+    private Object[] stack = new Object[32];
+    /** key awaiting its value, per open object */
+    private String[] pendingKeys = new String[32];
+    private int depth;
+
+    /** bytes of a token split across chunks */
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private boolean tokenIsKey;
+    /** the last byte fed inside a string was an unescaped backslash */
+    private boolean escapePending;
+    private String literal;
+    private Object literalValue;
+
+    /** bytes fed before the current chunk */
+    private long offset;
+    /** array index of the current chunk's first byte */
+    private int chunkStart;
+    /** input position of the buffered token */
+    private long tokenStart;
+    /** copy space for direct buffers */
+    private byte[] scratch;
+
+    public JSONPushParser(Consumer<Object> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Parse all remaining bytes of the chunk, advancing its position to its limit.
+     * @throws IllegalStateException on malformed input; the parser must not be fed any more
+     */
+    public void feed(ByteBuffer chunk) {
+        if (chunk.hasArray()) {
+            feed(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            ((Buffer) chunk).position(chunk.limit());
+        } else {
+            if (scratch == null)
+                scratch = new byte[8192];
+            while (chunk.hasRemaining()) {
+                int n = Math.min(scratch.length, chunk.remaining());
+                chunk.get(scratch, 0, n);
+                feed(scratch, 0, n);
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalStateException on malformed input; the parser must not be fed any more
+     */
+    public void feed(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        int end = off + len;
+        int i = off;
+        chunkStart = off;
+        try {
+            while (i < end) {
+                switch (state) {
+                    case IN_STRING:
+                        i = continueString(b, i, end);
+                        break;
+                    case IN_NUMBER:
+                        i = continueNumber(b, i, end);
+                        break;
+                    case IN_LITERAL:
+                        i = continueLiteral(b, i, end);
+                        break;
+                    default:
+                        byte c = b[i];
+                        if (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                            i++;
+                        else
+                            i = structural(b, i, end, c);
+                }
+            }
+        } finally {
+            offset += i - off;
+        }
+    }
+
+    /**
+     * Signal the end of the input, completing a trailing top-level number.
+     * The parser can then be fed the next input.
+     * @throws IllegalStateException if a value is still incomplete
+     */
+    public void end() {
+        if (state == IN_NUMBER && depth == 0) {
+            state = VALUE;
+            value(decode(token, 0, tokenLength, tokenStart));
+        }
+        if (state != VALUE || depth > 0)
+            throw error("unexpected end of input", offset);
+    }
+
+    /**
+     * @return true when no value is partially read
+     */
+    public boolean isIdle() {
+        return state == VALUE && depth == 0;
+    }
+
+    private int structural(byte[] b, int i, int end, byte c) {
+        switch (state) {
+            case VALUE:
+            case ARRAY_FIRST:
+                if (c == ']' && state == ARRAY_FIRST) {
+                    close();
+                    return i + 1;
+                }
+                return beginValue(b, i, end, c);
+            case OBJECT_FIRST:
+            case KEY:
+                if (c == '}' && state == OBJECT_FIRST) {
+                    close();
+                    return i + 1;
+                }
+                if (c != '"')
+                    throw error("expected key", at(i));
+                tokenIsKey = true;
+                return beginString(b, i, end);
+            case COLON:
+                if (c != ':')
+                    throw error("expected ':'", at(i));
+                state = VALUE;
+                return i + 1;
+            default: // AFTER_VALUE
+                boolean inObject = stack[depth - 1] instanceof Map;
+                if (c == ',') {
+                    state = inObject ? KEY : VALUE;
+                    return i + 1;
+                }
+                if (c == (inObject ? '}' : ']')) {
+                    close();
+                    return i + 1;
+                }
+                throw error(inObject ? "expected ',' or '}'" : "expected ',' or ']'", at(i));
+        }
+    }
+
+    private int beginValue(byte[] b, int i, int end, byte c) {
+        switch (c) {
+            case '{':
+                open(new LinkedHashMap());
+                state = OBJECT_FIRST;
+                return i + 1;
+            case '[':
+                open(new ArrayList());
+                state = ARRAY_FIRST;
+                return i + 1;
+            case '"':
+                tokenIsKey = false;
+                return beginString(b, i, end);
+            case 't':
+                return beginLiteral(b, i, end, "true", Boolean.TRUE);
+            case 'f':
+                return beginLiteral(b, i, end, "false", Boolean.FALSE);
+            case 'n':
+                return beginLiteral(b, i, end, "null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return beginNumber(b, i, end);
+                throw error("unexpected character '" + (char) (c & 0xFF) + "'", at(i));
+        }
+    }
+
+    /**
+     * Strings ending inside the chunk are decoded straight from it; others are buffered.
+     */
+    private int beginString(byte[] b, int i, int end) {
+        int close = closingQuote(b, i + 1, end, false);
+        if (close >= 0) {
+            string(b, i, close + 1, at(i));
+            return close + 1;
+        }
+        tokenLength = 0;
+        tokenStart = at(i);
+        append(b, i, end);
+        state = IN_STRING;
+        return end;
+    }
+
+    private int continueString(byte[] b, int i, int end) {
+        int close = closingQuote(b, i, end, escapePending);
+        if (close < 0) {
+            append(b, i, end);
+            return end;
+        }
+        append(b, i, close + 1);
+        string(token, 0, tokenLength, tokenStart);
+        return close + 1;
+    }
+
+    /**
+     * @return the index of the unescaped '"' ending the string, or -1 with escapePending
+     *         telling whether the chunk ended on a backslash
+     */
+    private int closingQuote(byte[] b, int i, int end, boolean escaped) {
+        if (escaped)
+            i++;
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (c == '"')
+                return i;
+            if (c == '\\' && ++i == end) {
+                escapePending = true;
+                return -1;
+            }
+        }
+        escapePending = false;
+        return -1;
+    }
+
+    private void string(byte[] b, int start, int end, long at) {
+        if (tokenIsKey) {
+            pendingKeys[depth - 1] = key(b, start, end, at);
+            state = COLON;
+        } else {
+            state = VALUE;
+            value(decode(b, start, end - start, at));
+        }
+    }
+
+    private String key(byte[] b, int start, int end, long at) {
+        for (int i = start + 1; i < end - 1; i++) {
+            if (b[i] == '\\' || b[i] < 0x20) {
+                String key = (String) decode(b, start, end - start, at);
+                return keys.lookup(key, 0, key.length());
+            }
+        }
+        return keys.lookupAscii(b, start + 1, end - 1);
+    }
+
+    private int beginNumber(byte[] b, int i, int end) {
+        int j = numberEnd(b, i, end);
+        if (j < end) {
+            state = VALUE;
+            value(decode(b, i, j - i, at(i)));
+            return j;
+        }
+        tokenLength = 0;
+        tokenStart = at(i);
+        append(b, i, end);
+        state = IN_NUMBER;
+        return end;
+    }
+
+    private int continueNumber(byte[] b, int i, int end) {
+        int j = numberEnd(b, i, end);
+        append(b, i, j);
+        if (j < end) {
+            state = VALUE;
+            value(decode(token, 0, tokenLength, tokenStart));
+        }
+        return j;
+    }
+
+    private static int numberEnd(byte[] b, int i, int end) {
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (!((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'))
+                return i;
+        }
+        return end;
+    }
+
+    private int beginLiteral(byte[] b, int i, int end, String text, Object v) {
+        literal = text;
+        literalValue = v;
+        tokenLength = 0;
+        state = IN_LITERAL;
+        return continueLiteral(b, i, end);
+    }
+
+    private int continueLiteral(byte[] b, int i, int end) {
+        while (i < end && tokenLength < literal.length()) {
+            if (b[i] != literal.charAt(tokenLength))
+                throw error("expected '" + literal + "'", at(i));
+            tokenLength++;
+            i++;
+        }
+        if (tokenLength == literal.length()) {
+            state = VALUE;
+            value(literalValue);
+        }
+        return i;
+    }
+
+    private void append(byte[] b, int start, int end) {
+        int n = end - start;
+        if (tokenLength + n > token.length) {
+            byte[] t = new byte[Math.max(token.length * 2, tokenLength + n)];
+            System.arraycopy(token, 0, t, 0, tokenLength);
+            token = t;
+        }
+        System.arraycopy(b, start, token, tokenLength, n);
+        tokenLength += n;
+    }
+
+    /**
+     * @return the input position of index i of the current chunk
+     */
+    private long at(int i) {
+        return offset + i - chunkStart;
+    }
+
+    private static Object decode(byte[] b, int start, int len, long at) {
+        try {
+            return new UTF8JSONParser(b, start, len, null).parseComplete();
+        } catch (IllegalStateException e) {
+            // the message carries the position within the token
+            throw error("invalid token (" + e.getMessage().substring("json ".length()) + ")", at);
+        }
+    }
+
+    private void open(Object container) {
+        if (depth == stack.length) {
+            Object[] s = new Object[depth * 2];
+            System.arraycopy(stack, 0, s, 0, depth);
+            stack = s;
+            String[] k = new String[depth * 2];
+            System.arraycopy(pendingKeys, 0, k, 0, depth);
+            pendingKeys = k;
+        }
+        stack[depth++] = container;
+    }
+
+    private void close() {
+        Object container = stack[--depth];
+        stack[depth] = null;
+        pendingKeys[depth] = null;
+        state = VALUE;
+        value(container);
+    }
+
+    /**
+     * Attach a completed value to its container, or emit it at the top level.
+     */
+    private void value(Object v) {
+        if (depth == 0) {
+            consumer.accept(v);
+            return;
+        }
+        Object container = stack[depth - 1];
+        if (container instanceof Map)
+            ((Map) container).put(pendingKeys[depth - 1], v);
+        else
+            ((List) container).add(v);
+        state = AFTER_VALUE;
+    }
+
+    private static IllegalStateException error(String msg, long at) {
+        return new IllegalStateException("json " + msg + " at " + at);
+    }
+}
@@ -0,0 +1,586 @@
+package ra.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull-style JSON tokenizer.
+ *
+ * Reads from a Reader, or UTF-8 from an InputStream or ReadableByteChannel, through a small
+ * fixed-size buffer so memory use stays constant whatever the size of the document.
+ * Several top-level values separated by whitespace may be read one after another.
+ * Unsynchronized.
+ */
+public class JSONReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, KEY, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final int SCOPE_DOCUMENT = 0;
+    private static final int SCOPE_EMPTY_ARRAY = 1;
+    private static final int SCOPE_ARRAY = 2;
+    private static final int SCOPE_EMPTY_OBJECT = 3;
+    private static final int SCOPE_OBJECT = 4;
+    /** key read, colon and value pending */
+    private static final int SCOPE_KEY = 5;
+
+    private final Reader in;
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    /** number of chars discarded before buf[0] */
+    private long offset;
+
+    private int[] scopes = new int[32];
+    private int depth = 1;
+
+    private Token peeked;
+    private final StringBuilder text = new StringBuilder();
+    private final int[] numberPos = new int[1];
+    /** the last number accumulated while it was read, see JSONNumber.valueOf(boolean, long, int, int, boolean) */
+    private boolean negative;
+    private long mantissa;
+    private int digits;
+    private int exp10;
+    private boolean integral;
+    private boolean bool;
+    private boolean skipping;
+
+    public JSONReader(Reader in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JSONReader(Reader in, int bufferSize) {
+        if (bufferSize < 8)
+            throw new IllegalArgumentException("Buffer size must be at least 8");
+        this.in = in;
+        this.buf = new char[bufferSize];
+        scopes[0] = SCOPE_DOCUMENT;
+    }
+
+    public JSONReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public JSONReader(ReadableByteChannel in) {
+        this(Channels.newReader(in, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    /**
+     * @return the type of the next token without consuming it
+     */
+    public Token peek() throws IOException {
+        if (peeked == null)
+            peeked = doPeek();
+        return peeked;
+    }
+
+    /**
+     * Consume the next token.
+     * The value of a KEY, STRING, NUMBER or BOOLEAN token stays available through
+     * getString(), getNumber() and getBoolean() until the following token is read.
+     */
+    public Token nextToken() throws IOException {
+        Token t = peek();
+        peeked = null;
+        return t;
+    }
+
+    /**
+     * @return true if the current object or array (or the document) has another element
+     */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    public String nextKey() throws IOException {
+        expect(Token.KEY);
+        return text.toString();
+    }
+
+    String nextKey(JSONSymbolTable keys) throws IOException {
+        if (keys == null)
+            return nextKey();
+        expect(Token.KEY);
+        return keys.lookup(text, 0, text.length());
+    }
+
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        return text.toString();
+    }
+
+    public Number nextNumber() throws IOException {
+        expect(Token.NUMBER);
+        return getNumber();
+    }
+
+    /**
+     * @return the source text of the next NUMBER token, for exact conversions
+     */
+    String nextNumberText() throws IOException {
+        expect(Token.NUMBER);
+        return text.toString();
+    }
+
+    /**
+     * @throws IllegalStateException if the number is not an integer within long range
+     */
+    public long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        return getLong();
+    }
+
+    /**
+     * @throws IllegalStateException if the number is not an integer within int range
+     */
+    public int nextInt() throws IOException {
+        expect(Token.NUMBER);
+        long v = getLong();
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            throw new IllegalStateException("json number out of int range at " + getPosition());
+        return (int) v;
+    }
+
+    public double nextDouble() throws IOException {
+        expect(Token.NUMBER);
+        return getDouble();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return bool;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skip the next value including everything nested in it, without materializing any of it.
+     * If the next token is a KEY, the key and its value are skipped.
+     */
+    public void skipValue() throws IOException {
+        Token t = peek();
+        if (t == Token.END_OBJECT || t == Token.END_ARRAY || t == Token.END_DOCUMENT)
+            throw new IllegalStateException("json no value to skip at " + getPosition());
+        skipping = true;
+        try {
+            if (t == Token.KEY)
+                nextToken();
+            int count = 0;
+            do {
+                t = nextToken();
+                if (t == Token.BEGIN_OBJECT || t == Token.BEGIN_ARRAY)
+                    count++;
+                else if (t == Token.END_OBJECT || t == Token.END_ARRAY)
+                    count--;
+            } while (count > 0);
+        } finally {
+            skipping = false;
+        }
+    }
+
+    /**
+     * @return the text of the last KEY or STRING token
+     */
+    public String getString() {
+        return text.toString();
+    }
+
+    /**
+     * Compare the text of the last KEY or STRING token without materializing it.
+     */
+    boolean textEquals(String s) {
+        int len = text.length();
+        if (len != s.length())
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of the last NUMBER token
+     */
+    public Number getNumber() {
+        numberPos[0] = 0;
+        return JSONNumber.parse(text, numberPos, text.length());
+    }
+
+    /**
+     * The value of the last NUMBER token without boxing it.
+     * @throws IllegalStateException if the number is not an integer within long range
+     */
+    public long getLong() {
+        if (integral && digits <= JSONNumber.MAX_MANTISSA_DIGITS)
+            return negative ? -mantissa : mantissa;
+        Number n = getNumber();
+        if (n instanceof Long || n instanceof Integer)
+            return n.longValue();
+        if (n instanceof Double && n.doubleValue() == (long) n.doubleValue() && Math.abs(n.doubleValue()) < 0x1p63)
+            return (long) n.doubleValue();
+        if (n instanceof BigDecimal) {
+            try {
+                return ((BigDecimal) n).longValueExact();
+            } catch (ArithmeticException e) {
+                // not an exact long
+            }
+        }
+        throw new IllegalStateException("json number " + text + " is not a long at " + getPosition());
+    }
+
+    /**
+     * The value of the last NUMBER token without boxing it, rounded to the nearest double.
+     */
+    public double getDouble() {
+        if (integral && digits <= JSONNumber.MAX_MANTISSA_DIGITS)
+            return negative ? -mantissa : mantissa;
+        if (!integral) {
+            double d = JSONNumber.toDouble(mantissa, digits, exp10);
+            if (!Double.isNaN(d))
+                return negative ? -d : d;
+        }
+        return Double.parseDouble(text.toString());
+    }
+
+    /**
+     * @return the value of the last BOOLEAN token
+     */
+    public boolean getBoolean() {
+        return bool;
+    }
+
+    /**
+     * @return number of chars consumed from the underlying source
+     */
+    public long getPosition() {
+        return offset + pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        depth = 1;
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token t = peek();
+        if (t != expected)
+            throw new IllegalStateException("json expected " + expected + " but was " + t + " at " + getPosition());
+        peeked = null;
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = scopes[depth - 1];
+        int c;
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY:
+            case SCOPE_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    pos++;
+                    depth--;
+                    return Token.END_ARRAY;
+                }
+                if (scope == SCOPE_ARRAY) {
+                    if (c != ',')
+                        throw syntaxError("expected ',' or ']'");
+                    pos++;
+                    c = nextNonWhitespace();
+                } else
+                    scopes[depth - 1] = SCOPE_ARRAY;
+                return readValue(c);
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    pos++;
+                    depth--;
+                    return Token.END_OBJECT;
+                }
+                if (scope == SCOPE_OBJECT) {
+                    if (c != ',')
+                        throw syntaxError("expected ',' or '}'");
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"')
+                    throw syntaxError("expected key");
+                pos++;
+                readString();
+                scopes[depth - 1] = SCOPE_KEY;
+                return Token.KEY;
+            case SCOPE_KEY:
+                if (nextNonWhitespace() != ':')
+                    throw syntaxError("expected ':'");
+                pos++;
+                scopes[depth - 1] = SCOPE_OBJECT;
+                return readValue(nextNonWhitespace());
+            default:
+                c = nextNonWhitespace();
+                if (c == -1)
+                    return Token.END_DOCUMENT;
+                return readValue(c);
+        }
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                pos++;
+                push(SCOPE_EMPTY_OBJECT);
+                return Token.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                push(SCOPE_EMPTY_ARRAY);
+                return Token.BEGIN_ARRAY;
+            case '"':
+                pos++;
+                readString();
+                return Token.STRING;
+            case 't':
+                readLiteral("true");
+                bool = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("false");
+                bool = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("null");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber();
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] s = new int[depth * 2];
+            System.arraycopy(scopes, 0, s, 0, depth);
+            scopes = s;
+        }
+        scopes[depth++] = scope;
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        int len = literal.length();
+        if (!fill(len))
+            throw syntaxError("unexpected end of input");
+        for (int i = 0; i < len; i++) {
+            if (buf[pos + i] != literal.charAt(i))
+                throw syntaxError("expected '" + literal + "'");
+        }
+        pos += len;
+    }
+
+    /**
+     * Collect the number into text, validating it against the JSON number grammar.
+     */
+    private void readNumber() throws IOException {
+        text.setLength(0);
+        negative = false;
+        mantissa = 0;
+        digits = 0;
+        exp10 = 0;
+        integral = true;
+        int exp = 0;
+        boolean negativeExp = false;
+        // 0 start, 1 minus, 2 leading zero, 3 integer digits, 4 dot, 5 fraction digits,
+        // 6 exponent marker, 7 exponent sign, 8 exponent digits
+        int state = 0;
+        while (pos < limit || fill(1)) {
+            char c = buf[pos];
+            int next;
+            if (c >= '0' && c <= '9') {
+                switch (state) {
+                    case 0: case 1: next = c == '0' ? 2 : 3; break;
+                    case 3: next = 3; break;
+                    case 4: case 5: next = 5; break;
+                    case 6: case 7: case 8: next = 8; break;
+                    default: next = -1;
+                }
+            } else if (c == '-') {
+                next = state == 0 ? 1 : state == 6 ? 7 : -1;
+            } else if (c == '+') {
+                next = state == 6 ? 7 : -1;
+            } else if (c == '.') {
+                next = state == 2 || state == 3 ? 4 : -1;
+            } else if (c == 'e' || c == 'E') {
+                next = state == 2 || state == 3 || state == 5 ? 6 : -1;
+            } else
+                break;
+            if (next < 0)
+                throw syntaxError("malformed number");
+            if (next == 3 || next == 5) {
+                // significant digits go into the mantissa while they fit
+                if (digits < JSONNumber.MAX_MANTISSA_DIGITS) {
+                    if (mantissa != 0 || c != '0') {
+                        mantissa = mantissa * 10 + (c - '0');
+                        digits++;
+                    }
+                    if (next == 5)
+                        exp10--;
+                } else {
+                    digits++;
+                    if (next == 3)
+                        exp10++;
+                }
+            } else if (next == 8) {
+                if (exp < 100000)
+                    exp = exp * 10 + (c - '0');
+            } else if (next == 1)
+                negative = true;
+            else if (next == 7)
+                negativeExp = c == '-';
+            else if (next == 4 || next == 6)
+                integral = false;
+            state = next;
+            text.append(c);
+            pos++;
+        }
+        if (state != 2 && state != 3 && state != 5 && state != 8)
+            throw syntaxError("malformed number");
+        exp10 += negativeExp ? -exp : exp;
+    }
+
+    /**
+     * Read the rest of a string whose opening quote has been consumed, decoding escapes into text.
+     */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buf[pos];
+                if (c == '"') {
+                    if (!skipping)
+                        text.append(buf, start, pos - start);
+                    pos++;
+                    return;
+                }
+                if (c == '\\') {
+                    if (!skipping)
+                        text.append(buf, start, pos - start);
+                    pos++;
+                    readEscape();
+                    start = pos;
+                    continue;
+                }
+                if (c < 0x20)
+                    throw syntaxError("unescaped control character in string");
+                pos++;
+            }
+            if (!skipping)
+                text.append(buf, start, pos - start);
+            if (!fill(1))
+                throw syntaxError("unterminated string");
+        }
+    }
+
+    private void readEscape() throws IOException {
+        if (!fill(1))
+            throw syntaxError("unterminated string");
+        char c = buf[pos++];
+        switch (c) {
+            case '"': case '\\': case '/': break;
+            case 'b': c = '\b'; break;
+            case 'f': c = '\f'; break;
+            case 'n': c = '\n'; break;
+            case 'r': c = '\r'; break;
+            case 't': c = '\t'; break;
+            case 'u':
+                if (!fill(4))
+                    throw syntaxError("unterminated string");
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    int d = Character.digit(buf[pos++], 16);
+                    if (d < 0)
+                        throw syntaxError("malformed unicode escape");
+                    v = (v << 4) | d;
+                }
+                c = (char) v;
+                break;
+            default:
+                throw syntaxError("invalid escape '\\" + c + "'");
+        }
+        if (!skipping)
+            text.append(c);
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            while (pos < limit) {
+                char c = buf[pos];
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                    pos++;
+                else
+                    return c;
+            }
+            if (!fill(1))
+                return -1;
+        }
+    }
+
+    /**
+     * Make at least min chars available from pos, compacting the buffer first.
+     * @return false if the end of input was reached first
+     */
+    private boolean fill(int min) throws IOException {
+        if (limit - pos >= min)
+            return true;
+        offset += pos;
+        if (pos != limit)
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        while (limit < min) {
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n == -1)
+                return false;
+            limit += n;
+        }
+        return true;
+    }
+
+    private IllegalStateException syntaxError(String msg) {
+        return new IllegalStateException("json " + msg + " at " + getPosition());
+    }
+}
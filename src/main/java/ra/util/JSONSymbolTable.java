@@ -0,0 +1,120 @@
+package ra.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canonical String instances for repeated JSON object keys.
+ *
+ * Keys are looked up by hashing the source range before any String is allocated,
+ * so a key seen before costs no allocation at all.
+ * Open addressing with linear probing; stops taking new symbols once full
+ * so hostile input cannot grow it without bound.
+ * Unsynchronized.
+ */
+final class JSONSymbolTable {
+
+    private static final int DEFAULT_MAX_SYMBOLS = 4096;
+    /** longer keys are unlikely to repeat and are not worth hashing twice */
+    private static final int MAX_SYMBOL_LENGTH = 64;
+
+    private final int maxSymbols;
+    private String[] symbols;
+    private int[] hashes;
+    private int size;
+
+    JSONSymbolTable() {
+        this(DEFAULT_MAX_SYMBOLS);
+    }
+
+    JSONSymbolTable(int maxSymbols) {
+        this.maxSymbols = maxSymbols;
+        symbols = new String[64];
+        hashes = new int[64];
+    }
+
+    String lookup(CharSequence src, int start, int end) {
+        if (end - start > MAX_SYMBOL_LENGTH)
+            return src.subSequence(start, end).toString();
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + src.charAt(i);
+        int mask = symbols.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            String s = symbols[i];
+            if (s == null)
+                return add(i, h, src.subSequence(start, end).toString());
+            if (hashes[i] == h && equals(s, src, start, end))
+                return s;
+        }
+    }
+
+    /**
+     * Look up a key held as ASCII bytes (no escapes, no bytes above 0x7F).
+     */
+    String lookupAscii(byte[] src, int start, int end) {
+        if (end - start > MAX_SYMBOL_LENGTH)
+            return new String(src, start, end - start, StandardCharsets.ISO_8859_1);
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + src[i];
+        int mask = symbols.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            String s = symbols[i];
+            if (s == null)
+                return add(i, h, new String(src, start, end - start, StandardCharsets.ISO_8859_1));
+            if (hashes[i] == h && equals(s, src, start, end))
+                return s;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private String add(int slot, int h, String s) {
+        if (size >= maxSymbols)
+            return s;
+        symbols[slot] = s;
+        hashes[slot] = h;
+        if (++size * 2 > symbols.length)
+            rehash();
+        return s;
+    }
+
+    private void rehash() {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[oldSymbols.length * 2];
+        hashes = new int[oldSymbols.length * 2];
+        int mask = symbols.length - 1;
+        for (int j = 0; j < oldSymbols.length; j++) {
+            if (oldSymbols[j] == null)
+                continue;
+            int i = oldHashes[j] & mask;
+            while (symbols[i] != null)
+                i = (i + 1) & mask;
+            symbols[i] = oldSymbols[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    private static boolean equals(String s, CharSequence src, int start, int end) {
+        if (s.length() != end - start)
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != src.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(String s, byte[] src, int start, int end) {
+        if (s.length() != end - start)
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != src[start + i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,574 @@
+package ra.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Index overlay for lazily materialized JSON.
+ *
+ * One structural pass validates the document and records every value as a fixed-size node
+ * on an int[] tape: type and flags, source start, source end (element count for containers)
+ * and the index of the node following its subtree. Objects and arrays are returned as
+ * read-only Map/List views that create their children, and decode strings and numbers,
+ * only when they are accessed. The views keep the source alive and are unsynchronized.
+ */
+final class JSONTape {
+
+    private static final int OBJECT = 1;
+    private static final int ARRAY = 2;
+    private static final int STRING = 3;
+    private static final int NUMBER = 4;
+    private static final int TRUE = 5;
+    private static final int FALSE = 6;
+    private static final int NULL = 7;
+    private static final int TYPE_MASK = 0x0F;
+    /** string contains escape sequences */
+    private static final int ESCAPED = 0x10;
+    /** string contains chars or bytes above 0x7F */
+    private static final int NON_ASCII = 0x20;
+
+    private static final int NODE_SIZE = 4;
+
+    /** objects with more members than this index their keys on first lookup */
+    private static final int MAX_LINEAR_KEYS = 8;
+
+    private static final Object UNSET = new Object();
+
+    private final String text;
+    private final byte[] bytes;
+    private final int base;
+    private final int limit;
+    private int[] tape;
+    private int nodes;
+
+    private JSONTape(String text, byte[] bytes, int base, int limit) {
+        this.text = text;
+        this.bytes = bytes;
+        this.base = base;
+        this.limit = limit;
+        tape = new int[NODE_SIZE * Math.max(16, Math.min((limit - base) / 4, 1 << 16))];
+    }
+
+    /**
+     * @return the lazily materialized first value, or null if the source holds only whitespace
+     */
+    static Object parse(String json) {
+        return new JSONTape(json, null, 0, json.length()).build();
+    }
+
+    static Object parse(byte[] utf8, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > utf8.length)
+            throw new IndexOutOfBoundsException();
+        return new JSONTape(null, utf8, offset, offset + length).build();
+    }
+
+    private Object build() {
+        int pos = skipWhitespace(base);
+        if (pos >= limit)
+            return null;
+        int[] stack = new int[32];
+        int depth = 0;
+        while (true) {
+            if (pos >= limit)
+                throw syntaxError("unexpected end of input", pos);
+            int c = at(pos);
+            if (c == '{' || c == '[') {
+                int n = add(c == '{' ? OBJECT : ARRAY, pos, 0);
+                if (depth == stack.length)
+                    stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = n;
+                pos = skipWhitespace(pos + 1);
+                if (pos < limit && at(pos) == (c == '{' ? '}' : ']')) {
+                    pos++;
+                    depth--;
+                    tape[n * NODE_SIZE + 3] = nodes;
+                } else {
+                    tape[n * NODE_SIZE + 2] = 1;
+                    if (c == '{')
+                        pos = key(pos);
+                    continue;
+                }
+            } else
+                pos = scalar(pos, c);
+
+            // the value is complete: close containers or move on to the next element
+            while (true) {
+                if (depth == 0) {
+                    pos = skipWhitespace(pos);
+                    if (pos < limit)
+                        throw syntaxError("unexpected character after value", pos);
+                    return value(0);
+                }
+                int n = stack[depth - 1];
+                boolean object = (tape[n * NODE_SIZE] & TYPE_MASK) == OBJECT;
+                pos = skipWhitespace(pos);
+                c = pos < limit ? at(pos) : -1;
+                if (c == ',') {
+                    pos = skipWhitespace(pos + 1);
+                    if (object)
+                        pos = key(pos);
+                    tape[n * NODE_SIZE + 2]++;
+                    break;
+                }
+                if (c != (object ? '}' : ']'))
+                    throw syntaxError(object ? "expected ',' or '}'" : "expected ',' or ']'", pos);
+                pos++;
+                depth--;
+                tape[n * NODE_SIZE + 3] = nodes;
+            }
+        }
+    }
+
+    private int key(int pos) {
+        if (pos >= limit || at(pos) != '"')
+            throw syntaxError("expected key", pos);
+        pos = skipWhitespace(scanString(pos));
+        if (pos >= limit || at(pos) != ':')
+            throw syntaxError("expected ':'", pos);
+        pos = skipWhitespace(pos + 1);
+        if (pos >= limit)
+            throw syntaxError("unexpected end of input", pos);
+        return pos;
+    }
+
+    private int scalar(int pos, int c) {
+        switch (c) {
+            case '"':
+                return scanString(pos);
+            case 't':
+                add(TRUE, pos, pos + 4);
+                return literal(pos, "true");
+            case 'f':
+                add(FALSE, pos, pos + 5);
+                return literal(pos, "false");
+            case 'n':
+                add(NULL, pos, pos + 4);
+                return literal(pos, "null");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return scanNumber(pos);
+                throw syntaxError("unexpected character '" + (char) c + "'", pos);
+        }
+    }
+
+    private int scanString(int pos) {
+        int s = pos + 1;
+        int flags = 0;
+        for (int i = s; i < limit; i++) {
+            int c = at(i);
+            if (c == '"') {
+                add(STRING | flags, s, i);
+                return i + 1;
+            }
+            if (c == '\\') {
+                flags |= ESCAPED;
+                if (i + 1 >= limit)
+                    break;
+                c = at(++i);
+                if (c == 'u') {
+                    if (i + 4 >= limit)
+                        break;
+                    for (int j = 1; j <= 4; j++) {
+                        if (Character.digit((char) at(i + j), 16) < 0)
+                            throw syntaxError("malformed unicode escape", i);
+                    }
+                    i += 4;
+                } else if ("\"\\/bfnrt".indexOf(c) < 0)
+                    throw syntaxError("invalid escape '\\" + (char) c + "'", i);
+            } else if (c < 0x20)
+                throw syntaxError("unescaped control character in string", i);
+            else if (c >= 0x80)
+                flags |= NON_ASCII;
+        }
+        throw syntaxError("unterminated string", pos);
+    }
+
+    private int scanNumber(int pos) {
+        int s = pos;
+        if (at(pos) == '-')
+            pos++;
+        if (pos < limit && at(pos) == '0')
+            pos++;
+        else if ((pos = digits(pos)) < 0)
+            throw syntaxError("malformed number", s);
+        if (pos < limit && at(pos) == '.') {
+            if ((pos = digits(pos + 1)) < 0)
+                throw syntaxError("malformed number", s);
+        }
+        if (pos < limit && (at(pos) == 'e' || at(pos) == 'E')) {
+            pos++;
+            if (pos < limit && (at(pos) == '+' || at(pos) == '-'))
+                pos++;
+            if ((pos = digits(pos)) < 0)
+                throw syntaxError("malformed number", s);
+        }
+        add(NUMBER, s, pos);
+        return pos;
+    }
+
+    /**
+     * @return the position after one or more digits, or -1 if there are none
+     */
+    private int digits(int pos) {
+        int s = pos;
+        while (pos < limit && at(pos) >= '0' && at(pos) <= '9')
+            pos++;
+        return pos == s ? -1 : pos;
+    }
+
+    private int literal(int pos, String literal) {
+        int len = literal.length();
+        if (pos + len > limit)
+            throw syntaxError("unexpected end of input", pos);
+        for (int i = 0; i < len; i++) {
+            if (at(pos + i) != literal.charAt(i))
+                throw syntaxError("expected '" + literal + "'", pos);
+        }
+        return pos + len;
+    }
+
+    private int add(int flags, int start, int end) {
+        int i = nodes * NODE_SIZE;
+        if (i == tape.length)
+            tape = Arrays.copyOf(tape, tape.length * 2);
+        tape[i] = flags;
+        tape[i + 1] = start;
+        tape[i + 2] = end;
+        tape[i + 3] = nodes + 1;
+        return nodes++;
+    }
+
+    private int skipWhitespace(int pos) {
+        while (pos < limit) {
+            int c = at(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                break;
+            pos++;
+        }
+        return pos;
+    }
+
+    private int at(int i) {
+        return text != null ? text.charAt(i) : bytes[i] & 0xFF;
+    }
+
+    private IllegalStateException syntaxError(String msg, int pos) {
+        return new IllegalStateException("json " + msg + " at " + (pos - base));
+    }
+
+    private int next(int node) {
+        return tape[node * NODE_SIZE + 3];
+    }
+
+    private int count(int node) {
+        return tape[node * NODE_SIZE + 2];
+    }
+
+    private Object value(int node) {
+        int i = node * NODE_SIZE;
+        switch (tape[i] & TYPE_MASK) {
+            case OBJECT:
+                return new LazyObject(this, node);
+            case ARRAY:
+                return new LazyArray(this, node);
+            case STRING:
+                return string(node);
+            case NUMBER:
+                return number(node);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private Number number(int node) {
+        int s = tape[node * NODE_SIZE + 1];
+        int e = tape[node * NODE_SIZE + 2];
+        if (text != null)
+            return JSONNumber.parse(text, new int[] {s}, e);
+        return JSONNumber.parse(new String(bytes, s, e - s, StandardCharsets.ISO_8859_1), new int[1], e - s);
+    }
+
+    private String string(int node) {
+        int flags = tape[node * NODE_SIZE];
+        int s = tape[node * NODE_SIZE + 1];
+        int e = tape[node * NODE_SIZE + 2];
+        if ((flags & ESCAPED) != 0)
+            return unescape(s, e);
+        if (text != null)
+            return text.substring(s, e);
+        return new String(bytes, s, e - s, (flags & NON_ASCII) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compare a string node to a key without decoding it where possible.
+     */
+    private boolean stringEquals(int node, String key) {
+        int flags = tape[node * NODE_SIZE];
+        int s = tape[node * NODE_SIZE + 1];
+        int e = tape[node * NODE_SIZE + 2];
+        if ((flags & ESCAPED) == 0) {
+            if (text != null)
+                return e - s == key.length() && text.regionMatches(s, key, 0, e - s);
+            if ((flags & NON_ASCII) == 0) {
+                if (e - s != key.length())
+                    return false;
+                for (int i = 0; i < e - s; i++) {
+                    if (bytes[s + i] != key.charAt(i))
+                        return false;
+                }
+                return true;
+            }
+        }
+        return string(node).equals(key);
+    }
+
+    /**
+     * Compare two string nodes without decoding them where possible.
+     */
+    private boolean sameString(int a, int b) {
+        int flags = tape[a * NODE_SIZE] | tape[b * NODE_SIZE];
+        if ((flags & ESCAPED) == 0 && (text != null || (flags & NON_ASCII) == 0)) {
+            int s = tape[a * NODE_SIZE + 1];
+            int t = tape[b * NODE_SIZE + 1];
+            int len = tape[a * NODE_SIZE + 2] - s;
+            if (tape[b * NODE_SIZE + 2] - t != len)
+                return false;
+            for (int i = 0; i < len; i++) {
+                if (at(s + i) != at(t + i))
+                    return false;
+            }
+            return true;
+        }
+        return string(a).equals(string(b));
+    }
+
+    /**
+     * Decode a validated string body containing escapes.
+     */
+    private String unescape(int s, int e) {
+        StringBuilder sb = new StringBuilder(e - s);
+        int run = s;
+        for (int i = s; i < e; i++) {
+            if (at(i) != '\\')
+                continue;
+            appendRaw(sb, run, i);
+            char c = (char) at(++i);
+            switch (c) {
+                case 'b': c = '\b'; break;
+                case 'f': c = '\f'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 't': c = '\t'; break;
+                case 'u':
+                    int v = 0;
+                    for (int j = 1; j <= 4; j++)
+                        v = (v << 4) | Character.digit((char) at(i + j), 16);
+                    c = (char) v;
+                    i += 4;
+                    break;
+                default:
+                    break;
+            }
+            sb.append(c);
+            run = i + 1;
+        }
+        appendRaw(sb, run, e);
+        return sb.toString();
+    }
+
+    private void appendRaw(StringBuilder sb, int s, int e) {
+        if (s == e)
+            return;
+        if (text != null)
+            sb.append(text, s, e);
+        else
+            sb.append(new String(bytes, s, e - s, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A repeated key keeps the place of its first occurrence and the value of its last,
+     * as the eager parser's LinkedHashMap.put does.
+     */
+    private static final class LazyObject extends AbstractMap<String, Object> {
+
+        private final JSONTape tape;
+        private final int node;
+        private int[] keyNodes;
+        private int[] valueNodes;
+        private String[] keys;
+        private Object[] values;
+        private Map<String, Integer> index;
+        private Set<Map.Entry<String, Object>> entries;
+
+        LazyObject(JSONTape tape, int node) {
+            this.tape = tape;
+            this.node = node;
+        }
+
+        @Override
+        public int size() {
+            return keyNodes().length;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : value(i);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            if (entries == null) {
+                entries = new AbstractSet<Map.Entry<String, Object>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, Object>> iterator() {
+                        return new Iterator<Map.Entry<String, Object>>() {
+                            private int i;
+
+                            @Override
+                            public boolean hasNext() {
+                                return i < size();
+                            }
+
+                            @Override
+                            public Map.Entry<String, Object> next() {
+                                if (i >= size())
+                                    throw new NoSuchElementException();
+                                int j = i++;
+                                return new AbstractMap.SimpleImmutableEntry<>(key(j), value(j));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return LazyObject.this.size();
+                    }
+                };
+            }
+            return entries;
+        }
+
+        private int indexOf(Object key) {
+            if (!(key instanceof String))
+                return -1;
+            int[] kn = keyNodes();
+            if (index != null) {
+                Integer i = index.get(key);
+                return i == null ? -1 : i;
+            }
+            for (int i = 0; i < kn.length; i++) {
+                if (tape.stringEquals(kn[i], (String) key))
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Find the distinct keys; large objects index them by name on the way.
+         */
+        private int[] keyNodes() {
+            if (keyNodes == null) {
+                int n = tape.count(node);
+                int[] kn = new int[n];
+                int[] vn = new int[n];
+                if (n > MAX_LINEAR_KEYS) {
+                    index = new HashMap<>(n * 2);
+                    keys = new String[n];
+                }
+                int distinct = 0;
+                int child = node + 1;
+                for (int i = 0; i < n; i++) {
+                    int j;
+                    if (index != null) {
+                        String key = tape.string(child);
+                        Integer seen = index.putIfAbsent(key, distinct);
+                        j = seen == null ? -1 : seen;
+                        if (seen == null)
+                            keys[distinct] = key;
+                    } else {
+                        j = distinct - 1;
+                        while (j >= 0 && !tape.sameString(kn[j], child))
+                            j--;
+                    }
+                    if (j < 0) {
+                        j = distinct++;
+                        kn[j] = child;
+                    }
+                    vn[j] = child + 1;
+                    child = tape.next(child + 1);
+                }
+                valueNodes = distinct < n ? Arrays.copyOf(vn, distinct) : vn;
+                keyNodes = distinct < n ? Arrays.copyOf(kn, distinct) : kn;
+            }
+            return keyNodes;
+        }
+
+        private String key(int i) {
+            if (keys == null)
+                keys = new String[size()];
+            if (keys[i] == null)
+                keys[i] = tape.string(keyNodes()[i]);
+            return keys[i];
+        }
+
+        private Object value(int i) {
+            if (values == null) {
+                values = new Object[size()];
+                Arrays.fill(values, UNSET);
+            }
+            Object v = values[i];
+            if (v == UNSET)
+                v = values[i] = tape.value(valueNodes[i]);
+            return v;
+        }
+    }
+
+    private static final class LazyArray extends AbstractList<Object> implements RandomAccess {
+
+        private final JSONTape tape;
+        private final int node;
+        private int[] elementNodes;
+        private Object[] values;
+
+        LazyArray(JSONTape tape, int node) {
+            this.tape = tape;
+            this.node = node;
+        }
+
+        @Override
+        public int size() {
+            return tape.count(node);
+        }
+
+        @Override
+        public Object get(int i) {
+            if (i < 0 || i >= size())
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+            if (values == null) {
+                int[] en = new int[size()];
+                int child = node + 1;
+                for (int j = 0; j < en.length; j++) {
+                    en[j] = child;
+                    child = tape.next(child);
+                }
+                elementNodes = en;
+                values = new Object[en.length];
+                Arrays.fill(values, UNSET);
+            }
+            Object v = values[i];
+            if (v == UNSET)
+                v = values[i] = tape.value(elementNodes[i]);
+            return v;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package ra.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checks that UTF-8 input is exactly one well-formed RFC 8259 JSON value, surrounded only by whitespace,
+ * and that strings are valid UTF-8 (no overlong forms, encoded surrogates or code points beyond U+10FFFF).
+ *
+ * A single iterative pass over the bytes; nothing is decoded or built, and nesting is tracked in a bit
+ * stack that only needs an array beyond 64 levels.
+ * One instance per validation, unsynchronized.
+ */
+final class JSONValidator {
+
+    /** bytes that may appear unescaped in a string and need no further checks */
+    private static final boolean[] PLAIN = new boolean[256];
+
+    static {
+        for (int c = 0x20; c < 0x80; c++)
+            PLAIN[c] = c != '"' && c != '\\';
+    }
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+    private int pos;
+
+    /** one bit per open container, set for objects; levels beyond 64 spill into deeper */
+    private long bits;
+    private long[] deeper;
+    private int depth;
+
+    private JSONValidator(byte[] bytes, ByteBuffer buffer, int start, int end) {
+        this.bytes = bytes;
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.pos = start;
+    }
+
+    /**
+     * @return the offset within the range of the first byte in error, the length of the range
+     *         if the input ends too early, or -1 if the input is well-formed
+     */
+    static int validate(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        return new JSONValidator(b, null, off, off + len).run();
+    }
+
+    /**
+     * Validate the remaining bytes in place, without changing the position.
+     * @return as validate(byte[], int, int), relative to the position
+     */
+    static int validate(ByteBuffer buf) {
+        if (buf.hasArray())
+            return validate(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        return new JSONValidator(null, buf, buf.position(), buf.limit()).run();
+    }
+
+    private int run() {
+        if (!value())
+            return pos - start;
+        while (depth > 0) {
+            int c = skipWhitespace();
+            boolean inObject = inObject();
+            if (c == ',') {
+                pos++;
+                if ((inObject && !member()) || !value())
+                    return pos - start;
+            } else if (c == (inObject ? '}' : ']')) {
+                pos++;
+                depth--;
+            } else
+                return pos - start;
+        }
+        if (skipWhitespace() >= 0)
+            return pos - start;
+        return -1;
+    }
+
+    /**
+     * Consume a scalar, or open a container and descend until a first value is consumed
+     * or the container turns out empty.
+     * @return false with pos at the error
+     */
+    private boolean value() {
+        while (true) {
+            switch (skipWhitespace()) {
+                case '{':
+                    pos++;
+                    if (skipWhitespace() == '}') {
+                        pos++;
+                        return true;
+                    }
+                    push(true);
+                    if (!member())
+                        return false;
+                    continue;
+                case '[':
+                    pos++;
+                    if (skipWhitespace() == ']') {
+                        pos++;
+                        return true;
+                    }
+                    push(false);
+                    continue;
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true");
+                case 'f':
+                    return literal("false");
+                case 'n':
+                    return literal("null");
+                default:
+                    return number();
+            }
+        }
+    }
+
+    /**
+     * Consume an object key and its ':'.
+     */
+    private boolean member() {
+        if (skipWhitespace() != '"' || !string())
+            return false;
+        if (skipWhitespace() != ':')
+            return false;
+        pos++;
+        return true;
+    }
+
+    private boolean string() {
+        pos++;
+        while (pos < end) {
+            int c = at(pos);
+            if (PLAIN[c]) {
+                pos++;
+            } else if (c == '"') {
+                pos++;
+                return true;
+            } else if (c == '\\') {
+                if (!escape())
+                    return false;
+            } else if (c < 0x80 || !utf8(c))
+                return false;
+        }
+        return false;
+    }
+
+    private boolean escape() {
+        if (++pos >= end)
+            return false;
+        switch (at(pos)) {
+            case '"':
+            case '\\':
+            case '/':
+            case 'b':
+            case 'f':
+            case 'n':
+            case 'r':
+            case 't':
+                pos++;
+                return true;
+            case 'u':
+                pos++;
+                for (int i = 0; i < 4; i++, pos++) {
+                    if (pos >= end)
+                        return false;
+                    int c = at(pos);
+                    if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')))
+                        return false;
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Consume one multi-byte sequence starting with lead byte c, per the well-formed table of Unicode 3.9.
+     */
+    private boolean utf8(int c) {
+        int lo = 0x80;
+        int hi = 0xBF;
+        int need;
+        if (c >= 0xC2 && c <= 0xDF)
+            need = 1;
+        else if (c >= 0xE0 && c <= 0xEF) {
+            need = 2;
+            if (c == 0xE0)
+                lo = 0xA0;
+            else if (c == 0xED)
+                hi = 0x9F;
+        } else if (c >= 0xF0 && c <= 0xF4) {
+            need = 3;
+            if (c == 0xF0)
+                lo = 0x90;
+            else if (c == 0xF4)
+                hi = 0x8F;
+        } else
+            return false;
+        pos++;
+        for (int i = 0; i < need; i++, pos++) {
+            if (pos >= end)
+                return false;
+            int d = at(pos);
+            if (d < lo || d > hi)
+                return false;
+            lo = 0x80;
+            hi = 0xBF;
+        }
+        return true;
+    }
+
+    private boolean number() {
+        if (pos < end && at(pos) == '-')
+            pos++;
+        if (pos >= end)
+            return false;
+        int c = at(pos);
+        if (c == '0')
+            pos++;
+        else if (c >= '1' && c <= '9')
+            digits();
+        else
+            return false;
+        if (pos < end && at(pos) == '.') {
+            pos++;
+            if (!digits())
+                return false;
+        }
+        if (pos < end && (at(pos) == 'e' || at(pos) == 'E')) {
+            pos++;
+            if (pos < end && (at(pos) == '+' || at(pos) == '-'))
+                pos++;
+            if (!digits())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if there was not at least one digit
+     */
+    private boolean digits() {
+        int s = pos;
+        while (pos < end) {
+            int c = at(pos);
+            if (c < '0' || c > '9')
+                break;
+            pos++;
+        }
+        return pos > s;
+    }
+
+    private boolean literal(String literal) {
+        for (int i = 0; i < literal.length(); i++, pos++) {
+            if (pos >= end || at(pos) != literal.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void push(boolean object) {
+        if (depth >= 64) {
+            int word = (depth >> 6) - 1;
+            if (deeper == null)
+                deeper = new long[4];
+            else if (word >= deeper.length) {
+                long[] d = new long[deeper.length * 2];
+                System.arraycopy(deeper, 0, d, 0, deeper.length);
+                deeper = d;
+            }
+            if (object)
+                deeper[word] |= 1L << depth;
+            else
+                deeper[word] &= ~(1L << depth);
+        } else if (object)
+            bits |= 1L << depth;
+        else
+            bits &= ~(1L << depth);
+        depth++;
+    }
+
+    private boolean inObject() {
+        int level = depth - 1;
+        long word = level < 64 ? bits : deeper[(level >> 6) - 1];
+        return (word & (1L << level)) != 0;
+    }
+
+    /**
+     * @return the next non-whitespace byte without consuming it, or -1 at the end of the range
+     */
+    private int skipWhitespace() {
+        while (pos < end) {
+            int c = at(pos);
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                pos++;
+            else
+                return c;
+        }
+        return -1;
+    }
+
+    private int at(int i) {
+        return bytes != null ? bytes[i] & 0xFF : buffer.get(i) & 0xFF;
+    }
+}
@@ -0,0 +1,624 @@
+package ra.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming JSON serializer.
+ *
+ * Writes Map/List/array trees, with other objects as the value their toJSON() returns
+ * (JSONSerializable included) or else as their toString(), or a document built up through
+ * beginObject/key/value/endObject calls, straight to an Appendable (StringBuilder, Writer...)
+ * or as UTF-8 to an OutputStream or ByteBuffer, without building intermediate Strings.
+ * Byte targets are buffered: call flush() or close() when done.
+ * Unsynchronized.
+ */
+public class JSONWriter implements Closeable, Flushable {
+
+    /** marks classes that do not declare an accessible toJSON() */
+    private static final MethodHandle NO_TO_JSON = MethodHandles.identity(Object.class);
+
+    /** toJSON() of each class, looked up once per class instead of once per object */
+    private static final ClassValue<MethodHandle> TO_JSON = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            Method m;
+            try {
+                m = type.getDeclaredMethod("toJSON");
+            } catch (NoSuchMethodException e) {
+                return NO_TO_JSON;
+            }
+            MethodHandle mh;
+            try {
+                mh = MethodHandles.publicLookup().unreflect(m);
+            } catch (IllegalAccessException e) {
+                mh = unreflectAccessible(m);
+                if (mh == null)
+                    return NO_TO_JSON;
+            }
+            if (Modifier.isStatic(m.getModifiers()))
+                mh = MethodHandles.dropArguments(mh, 0, Object.class);
+            return mh.asType(MethodType.methodType(Object.class, Object.class));
+        }
+    };
+
+    /**
+     * toJSON() of a class publicLookup cannot reach, such as a non-public class, as reflection
+     * with setAccessible reaches it.
+     * @return null if the method cannot be made accessible
+     */
+    private static MethodHandle unreflectAccessible(Method m) {
+        try {
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m);
+        } catch (RuntimeException | IllegalAccessException e) {
+            // SecurityException, or InaccessibleObjectException from an unopened module
+            return null;
+        }
+    }
+
+    /** escape sequence of each ASCII char that needs one, else null */
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++)
+            ESCAPES[c] = String.format("\\u%04x", c);
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+    }
+
+    private final Appendable out;
+    private boolean canonical;
+    /** digits of the integer being written, right aligned */
+    private final char[] digits = new char[20];
+    private final CharBuffer digitView = CharBuffer.wrap(digits);
+    /** per open container: true until its first element is written */
+    private boolean[] first = new boolean[32];
+    private int depth;
+    /** a key was written and its value is pending */
+    private boolean afterKey;
+    /** line breaks per nesting level, null when not indenting */
+    private JSONPretty.Indents indents;
+    /** containers open inside the value being written by write() */
+    private int nested;
+
+    public JSONWriter(Appendable out) {
+        this.out = out;
+    }
+
+    public JSONWriter(OutputStream out) {
+        this(UTF8Appendable.to(out));
+    }
+
+    /**
+     * @throws java.nio.BufferOverflowException from flush() if the buffer runs out of room
+     */
+    public JSONWriter(ByteBuffer out) {
+        this(UTF8Appendable.to(out));
+    }
+
+    /**
+     * Hash the UTF-8 bytes as they are written; usually combined with setCanonical(true).
+     */
+    public JSONWriter(MessageDigest digest) {
+        this(UTF8Appendable.to(digest));
+    }
+
+    /**
+     * Feed the UTF-8 bytes to an initialized Signature as they are written;
+     * usually combined with setCanonical(true).
+     */
+    public JSONWriter(Signature signature) {
+        this(UTF8Appendable.to(signature));
+    }
+
+    /**
+     * Write values in canonical form (RFC 8785 style) so equal trees always give identical bytes:
+     * object members sorted by key in UTF-16 code unit order, numbers in the shortest
+     * ECMAScript form (integral values without fraction or exponent, -0 as 0), no whitespace.
+     * BigDecimal and BigInteger values keep all their digits rather than being rounded to a double.
+     * Applies to values passed to write(); keys given through key() are written in call order.
+     * @throws IllegalStateException from write() on NaN or infinite numbers
+     */
+    public JSONWriter setCanonical(boolean canonical) {
+        this.canonical = canonical;
+        return this;
+    }
+
+    /**
+     * Put each object member and array element on its own line, indented by the given number
+     * of spaces per level, with a space after each ':'; 0 or less writes compact output.
+     * Empty containers stay {} and []. Not meant to be combined with setCanonical.
+     */
+    public JSONWriter setIndent(int spaces) {
+        this.indents = spaces > 0 ? new JSONPretty.Indents(spaces) : null;
+        return this;
+    }
+
+    /**
+     * Serialize a value and everything it contains.
+     */
+    public JSONWriter write(Object value) throws IOException {
+        beforeValue();
+        writeValue(value);
+        return this;
+    }
+
+    public JSONWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null)
+            out.append("null");
+        else
+            writeString(value);
+        return this;
+    }
+
+    /**
+     * Primitive values are written without boxing; integers without an intermediate String.
+     */
+    public JSONWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public JSONWriter value(double value) throws IOException {
+        beforeValue();
+        out.append(canonical ? canonicalNumber(value) : Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Written with the shortest digits that identify the float, not those of its double widening.
+     */
+    public JSONWriter value(float value) throws IOException {
+        beforeValue();
+        out.append(canonical ? canonicalNumber(value) : Float.toString(value));
+        return this;
+    }
+
+    public JSONWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.append(value ? "true" : "false");
+        return this;
+    }
+
+    public JSONWriter nullValue() throws IOException {
+        beforeValue();
+        out.append("null");
+        return this;
+    }
+
+    public JSONWriter beginObject() throws IOException {
+        beforeValue();
+        out.append('{');
+        push();
+        return this;
+    }
+
+    public JSONWriter endObject() throws IOException {
+        pop();
+        if (!first[depth])
+            newline();
+        out.append('}');
+        return this;
+    }
+
+    public JSONWriter beginArray() throws IOException {
+        beforeValue();
+        out.append('[');
+        push();
+        return this;
+    }
+
+    public JSONWriter endArray() throws IOException {
+        pop();
+        if (!first[depth])
+            newline();
+        out.append(']');
+        return this;
+    }
+
+    /**
+     * Write the key of the next object member; follow it with its value.
+     */
+    public JSONWriter key(String key) throws IOException {
+        if (depth == 0 || afterKey)
+            throw new IllegalStateException("json key outside of an object");
+        if (!first[depth - 1])
+            out.append(',');
+        first[depth - 1] = false;
+        newline();
+        writeString(key);
+        colon();
+        afterKey = true;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof UTF8Appendable)
+            ((UTF8Appendable) out).flush();
+        else if (out instanceof Flushable)
+            ((Flushable) out).flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out instanceof UTF8Appendable)
+            ((UTF8Appendable) out).close();
+        else if (out instanceof Closeable)
+            ((Closeable) out).close();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterKey)
+            afterKey = false;
+        else if (depth > 0) {
+            if (!first[depth - 1])
+                out.append(',');
+            first[depth - 1] = false;
+            newline();
+        }
+    }
+
+    /**
+     * Line break and indentation for the current nesting, when indenting.
+     */
+    private void newline() throws IOException {
+        if (indents != null)
+            out.append(indents.chars(depth + nested));
+    }
+
+    private void colon() throws IOException {
+        out.append(':');
+        if (indents != null)
+            out.append(' ');
+    }
+
+    private void push() {
+        if (depth == first.length) {
+            boolean[] f = new boolean[depth * 2];
+            System.arraycopy(first, 0, f, 0, depth);
+            first = f;
+        }
+        first[depth++] = true;
+    }
+
+    private void pop() {
+        if (depth == 0 || afterKey)
+            throw new IllegalStateException("json unbalanced end of container");
+        depth--;
+    }
+
+    private void writeValue(Object obj) throws IOException {
+        if (obj == null)
+            out.append("null");
+        else if (obj instanceof String)
+            writeString((String) obj);
+        else if (obj instanceof Boolean)
+            out.append(obj.toString());
+        else if ((obj instanceof Integer) || (obj instanceof Long))
+            writeLong(((Number) obj).longValue());
+        else if (obj instanceof LazyNumber && !canonical)
+            ((LazyNumber) obj).appendTo(out);
+        else if (obj instanceof Number)
+            out.append(canonical ? canonicalNumber((Number) obj) : obj.toString());
+        else if (canonical && (obj instanceof Map))
+            writeSortedMap((Map) obj);
+        else if (obj instanceof Map) {
+            out.append('{');
+            nested++;
+            boolean firstEntry = true;
+            for (Object o : ((Map) obj).entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                if (!firstEntry)
+                    out.append(',');
+                newline();
+                writeString(String.valueOf(e.getKey()));
+                colon();
+                writeValue(e.getValue());
+                firstEntry = false;
+            }
+            close('}', firstEntry);
+        } else if (obj instanceof NumericList)
+            writePrimitiveArray(((NumericList) obj).array());
+        else if (obj instanceof List) {
+            out.append('[');
+            nested++;
+            boolean firstElement = true;
+            Iterator itt = ((List) obj).iterator();
+            while (itt.hasNext()) {
+                if (!firstElement)
+                    out.append(',');
+                newline();
+                writeValue(itt.next());
+                firstElement = false;
+            }
+            close(']', firstElement);
+        } else if (obj instanceof Object[]) {
+            Object[] l = (Object[]) obj;
+            out.append('[');
+            nested++;
+            for (int i = 0; i < l.length; i++) {
+                if (i > 0)
+                    out.append(',');
+                newline();
+                writeValue(l[i]);
+            }
+            close(']', l.length == 0);
+        } else if (obj.getClass().isArray())
+            writePrimitiveArray(obj);
+        else {
+            MethodHandle toJSON = TO_JSON.get(obj.getClass());
+            if (toJSON == NO_TO_JSON) {
+                writeString(obj.toString());
+                return;
+            }
+            Object jsonObj;
+            try {
+                jsonObj = (Object) toJSON.invokeExact(obj);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                writeString(obj.toString());
+                return;
+            }
+            writeValue(jsonObj);
+        }
+    }
+
+    private void writeSortedMap(Map map) throws IOException {
+        Map.Entry[] entries = new Map.Entry[map.size()];
+        String[] keys = new String[entries.length];
+        int n = 0;
+        for (Object o : map.entrySet()) {
+            entries[n] = (Map.Entry) o;
+            keys[n] = String.valueOf(entries[n].getKey());
+            n++;
+        }
+        // sort indexes by key; String.compareTo is UTF-16 code unit order
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (x, y) -> keys[x].compareTo(keys[y]));
+        out.append('{');
+        nested++;
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                out.append(',');
+            newline();
+            writeString(keys[order[i]]);
+            colon();
+            writeValue(entries[order[i]].getValue());
+        }
+        close('}', n == 0);
+    }
+
+    /**
+     * End a container opened by writeValue.
+     */
+    private void close(char c, boolean empty) throws IOException {
+        nested--;
+        if (!empty)
+            newline();
+        out.append(c);
+    }
+
+    /**
+     * Integers as plain digits, floats and doubles through their shortest decimal digits.
+     * BigDecimal and BigInteger values are laid out like doubles but keep all their digits,
+     * they are not rounded to the nearest double as RFC 8785 would.
+     */
+    static String canonicalNumber(Number n) {
+        if (n instanceof LazyNumber)
+            n = ((LazyNumber) n).toNumber();
+        if ((n instanceof Integer) || (n instanceof Long) || (n instanceof Short) || (n instanceof Byte))
+            return n.toString();
+        if (n instanceof BigDecimal)
+            return canonicalNumber((BigDecimal) n);
+        if (n instanceof BigInteger)
+            return canonicalNumber(new BigDecimal((BigInteger) n));
+        if (n instanceof Float)
+            return canonicalNumber(n.floatValue());
+        return canonicalNumber(n.doubleValue());
+    }
+
+    static String canonicalNumber(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d))
+            throw new IllegalStateException("json number " + d + " has no JSON form");
+        if (d == 0)
+            return "0";
+        // below 2^53 every integer is a double of its own, so its digits are the shortest
+        if (d == (long) d && Math.abs(d) < 0x1p53)
+            return Long.toString((long) d);
+        return canonicalNumber(shortest(d, Double.toString(d), false));
+    }
+
+    static String canonicalNumber(float f) {
+        if (Float.isNaN(f) || Float.isInfinite(f))
+            throw new IllegalStateException("json number " + f + " has no JSON form");
+        if (f == 0)
+            return "0";
+        if (f == (int) f && Math.abs(f) < 0x1p24f)
+            return Integer.toString((int) f);
+        return canonicalNumber(shortest(f, Float.toString(f), true));
+    }
+
+    /**
+     * The shortest decimal that reads back as the double (or float) d, and of those the
+     * closest to d, as ECMAScript Number::toString picks its digits. Double.toString only
+     * gives an upper bound: before JDK 19 it can return more digits than needed.
+     * @param text Double.toString(d) or Float.toString(d), a decimal that reads back as d
+     */
+    private static BigDecimal shortest(double d, String text, boolean isFloat) {
+        BigDecimal exact = new BigDecimal(d);
+        int precision = new BigDecimal(text).stripTrailingZeros().precision();
+        BigDecimal best = nearest(exact, precision, d, isFloat);
+        if (best == null)
+            best = new BigDecimal(text);
+        // fewer digits can only read back as d if all more digits do, so stop at the first miss
+        for (int p = precision - 1; p > 0; p--) {
+            BigDecimal shorter = nearest(exact, p, d, isFloat);
+            if (shorter == null)
+                break;
+            best = shorter;
+        }
+        return best;
+    }
+
+    /**
+     * Of the two decimals with the given number of significant digits around exact, the
+     * closer one that reads back as d. Any other decimal of that length is further from d.
+     * @return null if neither reads back as d
+     */
+    private static BigDecimal nearest(BigDecimal exact, int precision, double d, boolean isFloat) {
+        BigDecimal r = exact.round(new MathContext(precision, RoundingMode.HALF_EVEN));
+        if (readsBack(r, d, isFloat))
+            return r;
+        int side = r.compareTo(exact);
+        if (side == 0)
+            return null;
+        r = exact.round(new MathContext(precision, side > 0 ? RoundingMode.FLOOR : RoundingMode.CEILING));
+        return readsBack(r, d, isFloat) ? r : null;
+    }
+
+    private static boolean readsBack(BigDecimal v, double d, boolean isFloat) {
+        return isFloat ? v.floatValue() == (float) d : v.doubleValue() == d;
+    }
+
+    /**
+     * ECMAScript Number::toString layout of the decimal digits.
+     */
+    private static String canonicalNumber(BigDecimal v) {
+        v = v.stripTrailingZeros();
+        if (v.signum() == 0)
+            return "0";
+        String digits = v.unscaledValue().abs().toString();
+        int k = digits.length();
+        // value = 0.digits * 10^n
+        int n = k - v.scale();
+        StringBuilder buf = new StringBuilder(k + 8);
+        if (v.signum() < 0)
+            buf.append('-');
+        if (k <= n && n <= 21) {
+            buf.append(digits);
+            for (int i = k; i < n; i++)
+                buf.append('0');
+        } else if (0 < n && n <= 21)
+            buf.append(digits, 0, n).append('.').append(digits, n, k);
+        else if (-6 < n && n <= 0) {
+            buf.append("0.");
+            for (int i = n; i < 0; i++)
+                buf.append('0');
+            buf.append(digits);
+        } else {
+            buf.append(digits.charAt(0));
+            if (k > 1)
+                buf.append('.').append(digits, 1, k);
+            buf.append('e').append(n - 1 >= 0 ? '+' : '-').append(Math.abs(n - 1));
+        }
+        return buf.toString();
+    }
+
+    private void writePrimitiveArray(Object array) throws IOException {
+        out.append('[');
+        nested++;
+        int len = java.lang.reflect.Array.getLength(array);
+        if (array instanceof int[]) {
+            int[] a = (int[]) array;
+            for (int i = 0; i < a.length; i++) {
+                if (i > 0)
+                    out.append(',');
+                newline();
+                writeLong(a[i]);
+            }
+        } else if (array instanceof long[]) {
+            long[] a = (long[]) array;
+            for (int i = 0; i < a.length; i++) {
+                if (i > 0)
+                    out.append(',');
+                newline();
+                writeLong(a[i]);
+            }
+        } else if (array instanceof double[]) {
+            double[] a = (double[]) array;
+            for (int i = 0; i < a.length; i++) {
+                if (i > 0)
+                    out.append(',');
+                newline();
+                out.append(canonical ? canonicalNumber(a[i]) : Double.toString(a[i]));
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                if (i > 0)
+                    out.append(',');
+                newline();
+                writeValue(java.lang.reflect.Array.get(array, i));
+            }
+        }
+        close(']', len == 0);
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            out.append("-9223372036854775808");
+            return;
+        }
+        boolean negative = v < 0;
+        if (negative)
+            v = -v;
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (negative)
+            digits[--i] = '-';
+        out.append(digitView, i, digits.length);
+    }
+
+    /**
+     * Appends the runs between chars that need escaping in bulk.
+     */
+    private void writeString(String s) throws IOException {
+        out.append('"');
+        int run = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch < ESCAPES.length && ESCAPES[ch] != null) {
+                if (run < i)
+                    out.append(s, run, i);
+                out.append(ESCAPES[ch]);
+                run = i + 1;
+            }
+        }
+        if (run < s.length())
+            out.append(s, run, s.length());
+        out.append('"');
+    }
+}
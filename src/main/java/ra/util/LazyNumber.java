@@ -0,0 +1,116 @@
+package ra.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSON number kept as its place in the parsed source, see JSONParser.setLazyNumbers.
+ * It is converted on first use by a Number method, to the Integer, Long, Double or BigDecimal
+ * the parser would have returned, and written back by JSONWriter as the original digits,
+ * so numbers passed through keep their exact text. Holds on to the whole source.
+ *
+ * equals() is only true against another LazyNumber, like Integer.equals is only true against
+ * an Integer, so a tree parsed with lazy numbers is not equal to the eager tree of the same text.
+ * Compare toNumber() values, or the trees' JSONParser.toCanonicalString output, instead.
+ */
+public final class LazyNumber extends Number {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String chars;
+    private final byte[] bytes;
+    private final int start;
+    private final int end;
+    private transient Number value;
+
+    LazyNumber(String chars, int start, int end) {
+        this.chars = chars;
+        this.bytes = null;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param bytes ASCII digits of a number already checked by the parser
+     */
+    LazyNumber(byte[] bytes, int start, int end) {
+        this.chars = null;
+        this.bytes = bytes;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the converted value, computed once
+     */
+    public Number toNumber() {
+        Number v = value;
+        if (v == null) {
+            String text = toString();
+            v = value = JSONNumber.parse(text, new int[1], text.length());
+        }
+        return v;
+    }
+
+    @Override
+    public int intValue() {
+        return toNumber().intValue();
+    }
+
+    @Override
+    public long longValue() {
+        return toNumber().longValue();
+    }
+
+    @Override
+    public float floatValue() {
+        return toNumber().floatValue();
+    }
+
+    @Override
+    public double doubleValue() {
+        return toNumber().doubleValue();
+    }
+
+    /**
+     * Copy the source digits without converting them.
+     */
+    void appendTo(Appendable out) throws IOException {
+        if (chars != null)
+            out.append(chars, start, end);
+        else {
+            for (int i = start; i < end; i++)
+                out.append((char) bytes[i]);
+        }
+    }
+
+    /**
+     * @return the number as written in the source
+     */
+    @Override
+    public String toString() {
+        if (chars != null)
+            return chars.substring(start, end);
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Equal to a LazyNumber of the same converted value, like the Numbers it stands for.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LazyNumber && toNumber().equals(((LazyNumber) o).toNumber());
+    }
+
+    @Override
+    public int hashCode() {
+        return toNumber().hashCode();
+    }
+
+    /**
+     * Serialized as the converted value rather than with its source.
+     */
+    private Object writeReplace() {
+        return toNumber();
+    }
+}
@@ -0,0 +1,312 @@
+package ra.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parallel parsing of newline delimited JSON (one document per line) files.
+ *
+ * The file is memory-mapped in chunks whose boundaries are moved to line ends,
+ * and chunks are parsed straight from their UTF-8 bytes on a ForkJoinPool.
+ * Results are delivered either in file order or, for the highest throughput,
+ * in whatever order the chunks complete. Blank lines are skipped; every other line must hold
+ * exactly one value, and an error names its 1-based line number and byte offset.
+ */
+public class NDJSONParser {
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    /** initial read beyond the chunk end to find the end of its last line */
+    private static final int LINE_SLACK = 64 * 1024;
+
+    /**
+     * Parse every line on the common pool.
+     * @param ordered true to deliver values in file order from the calling thread;
+     *                false to deliver them from the worker threads as chunks complete,
+     *                in which case the consumer must be thread safe
+     */
+    public static void forEach(Path path, Consumer<Object> consumer, boolean ordered) throws IOException {
+        forEach(path, ForkJoinPool.commonPool(), consumer, ordered);
+    }
+
+    public static void forEach(Path path, ForkJoinPool pool, Consumer<Object> consumer, boolean ordered) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            forEach(channel, pool, consumer, ordered);
+        }
+    }
+
+    public static void forEach(final FileChannel channel, ForkJoinPool pool, final Consumer<Object> consumer, boolean ordered) throws IOException {
+        try {
+            if (ordered) {
+                Chunks chunks = new Chunks(channel, pool);
+                while (chunks.hasNext()) {
+                    for (Object value : chunks.next())
+                        consumer.accept(value);
+                }
+            } else {
+                final long size = channel.size();
+                int count = chunkCount(size);
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final int chunk = i;
+                    tasks.add(submit(pool, () -> parseChunk(channel, size, chunk, consumer)));
+                }
+                for (ForkJoinTask<?> task : tasks)
+                    join(task);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parse the file on the common pool into a sequential Stream in file order.
+     * Chunks are parsed ahead of consumption, a bounded number at a time.
+     * Close the stream to release the file.
+     */
+    public static Stream<Object> stream(Path path) throws IOException {
+        return stream(path, ForkJoinPool.commonPool());
+    }
+
+    public static Stream<Object> stream(Path path, ForkJoinPool pool) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            Iterator<List<Object>> chunks = new Chunks(channel, pool);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                    .flatMap(List::stream)
+                    .onClose(() -> {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int chunkCount(long size) {
+        long count = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("File too large: " + size);
+        return (int) count;
+    }
+
+    private static List<Object> parseChunk(FileChannel channel, long size, int chunk) {
+        List<Object> values = new ArrayList<>();
+        parseChunk(channel, size, chunk, values::add);
+        return values;
+    }
+
+    /**
+     * Parse the lines starting inside chunk number 'chunk' of the file.
+     */
+    private static void parseChunk(FileChannel channel, long size, int chunk, Consumer<Object> sink) {
+        long chunkStart = (long) chunk * CHUNK_SIZE;
+        long chunkEnd = Math.min(size, chunkStart + CHUNK_SIZE);
+        // start one byte early so a line starting exactly at chunkStart is recognized
+        long begin = chunk == 0 ? 0 : chunkStart - 1;
+        int limit = (int) (chunkEnd - begin);
+        try {
+            for (long slack = LINE_SLACK; ; slack *= 2) {
+                long end = Math.min(size, chunkEnd + slack);
+                if (end - begin > Integer.MAX_VALUE)
+                    throw new IllegalStateException("NDJSON line longer than " + Integer.MAX_VALUE + " bytes at " + begin);
+                byte[] b = new byte[(int) (end - begin)];
+                channel.map(FileChannel.MapMode.READ_ONLY, begin, b.length).get(b);
+
+                int first = 0;
+                if (chunk > 0) {
+                    first = indexOf(b, 0) + 1;
+                    if (first == 0 || first >= limit)
+                        return;
+                }
+                int last = indexOf(b, limit - 1);
+                if (last < 0) {
+                    if (end < size)
+                        continue;
+                    last = b.length;
+                }
+                parseLines(channel, b, first, last, begin, sink);
+                return;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parse the lines in b[start, end), which holds the file from fileOffset.
+     * Each line must hold exactly one value.
+     */
+    private static void parseLines(FileChannel channel, byte[] b, int start, int end, long fileOffset, Consumer<Object> sink) throws IOException {
+        int pos = start;
+        while (pos < end) {
+            int nl = indexOf(b, pos);
+            if (nl < 0 || nl > end)
+                nl = end;
+            if (!isBlank(b, pos, nl)) {
+                Object value;
+                try {
+                    value = new UTF8JSONParser(b, pos, nl - pos, null).parseComplete();
+                } catch (IllegalStateException e) {
+                    long offset = fileOffset + pos;
+                    throw new IllegalStateException("NDJSON line " + lineNumber(channel, offset) + " at byte " + offset + ": " + e.getMessage(), e);
+                }
+                sink.accept(value);
+            }
+            pos = nl + 1;
+        }
+    }
+
+    /**
+     * Count the newlines before offset. Only used to report an error, so chunks do not
+     * have to know how many lines precede them.
+     * @return the 1-based number of the line starting at offset
+     */
+    private static long lineNumber(FileChannel channel, long offset) throws IOException {
+        long line = 1;
+        for (long pos = 0; pos < offset; pos += CHUNK_SIZE) {
+            int n = (int) Math.min(CHUNK_SIZE, offset - pos);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, n);
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n')
+                    line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Submit the work wrapped so that join can tell its failures apart from the pool's own.
+     */
+    static <T> ForkJoinTask<T> submit(ForkJoinPool pool, final Supplier<T> work) {
+        return pool.submit(() -> {
+            try {
+                return work.get();
+            } catch (RuntimeException | Error e) {
+                throw new WorkerFailure(e);
+            }
+        });
+    }
+
+    static ForkJoinTask<?> submit(ForkJoinPool pool, final Runnable work) {
+        return submit(pool, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * join() for tasks from submit, rethrowing a failure of the work as it was thrown.
+     */
+    static <T> T join(ForkJoinTask<T> task) {
+        try {
+            return task.join();
+        } catch (WorkerFailure e) {
+            throw e.unwrap();
+        } catch (RuntimeException e) {
+            // ForkJoinTask may rethrow a copy, though it cannot construct this class
+            if (e.getCause() instanceof WorkerFailure)
+                throw ((WorkerFailure) e.getCause()).unwrap();
+            throw e;
+        }
+    }
+
+    /**
+     * Carries a failure out of a task submitted through submit.
+     */
+    private static final class WorkerFailure extends RuntimeException {
+
+        private WorkerFailure(Throwable cause) {
+            super(cause);
+        }
+
+        private RuntimeException unwrap() {
+            Throwable cause = getCause();
+            if (cause instanceof Error)
+                throw (Error) cause;
+            return (RuntimeException) cause;
+        }
+    }
+
+    private static int indexOf(byte[] b, int from) {
+        for (int i = from; i < b.length; i++) {
+            if (b[i] == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte c = b[i];
+            if (c != ' ' && c != '\t' && c != '\r')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Chunk results in file order, keeping a bounded number of chunks in flight.
+     */
+    private static final class Chunks implements Iterator<List<Object>> {
+
+        private final FileChannel channel;
+        private final ForkJoinPool pool;
+        private final long size;
+        private final int count;
+        private final int window;
+        private final ArrayDeque<ForkJoinTask<List<Object>>> inFlight = new ArrayDeque<>();
+        private int submitted;
+
+        Chunks(FileChannel channel, ForkJoinPool pool) throws IOException {
+            this.channel = channel;
+            this.pool = pool;
+            this.size = channel.size();
+            this.count = chunkCount(size);
+            this.window = Math.max(2, pool.getParallelism() * 2);
+            fill();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public List<Object> next() {
+            ForkJoinTask<List<Object>> task = inFlight.poll();
+            if (task == null)
+                throw new NoSuchElementException();
+            List<Object> values = join(task);
+            fill();
+            return values;
+        }
+
+        private void fill() {
+            while (submitted < count && inFlight.size() < window) {
+                final int chunk = submitted++;
+                inFlight.add(submit(pool, () -> parseChunk(channel, size, chunk)));
+            }
+        }
+    }
+}
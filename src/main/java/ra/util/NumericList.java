@@ -0,0 +1,188 @@
+package ra.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only List view over an int[], long[] or double[], used for homogeneous numeric JSON arrays
+ * when JSONParser.setPrimitiveArrays is on. Elements are boxed only when read through get();
+ * getLong/getDouble and array() avoid that. Equal to the List of boxed numbers it was parsed from.
+ */
+public abstract class NumericList extends AbstractList<Number> implements RandomAccess {
+
+    NumericList() {}
+
+    public abstract long getLong(int index);
+
+    public abstract double getDouble(int index);
+
+    /**
+     * @return the backing array (int[], long[] or double[]), not a copy
+     */
+    public abstract Object array();
+
+    public static NumericList of(int[] values) {
+        return new Ints(values);
+    }
+
+    public static NumericList of(long[] values) {
+        return new Longs(values);
+    }
+
+    public static NumericList of(double[] values) {
+        return new Doubles(values);
+    }
+
+    /**
+     * @return the list as a NumericList if it holds only Integers, only Integers and Longs,
+     *         or only Doubles; otherwise the list itself
+     */
+    static List compact(List list) {
+        int n = list.size();
+        if (n == 0)
+            return list;
+        boolean ints = true;
+        boolean longs = true;
+        boolean doubles = true;
+        for (int i = 0; i < n; i++) {
+            Object o = list.get(i);
+            if (o instanceof Integer)
+                doubles = false;
+            else if (o instanceof Long) {
+                ints = false;
+                doubles = false;
+            } else if (o instanceof Double) {
+                ints = false;
+                longs = false;
+            } else
+                return list;
+            if (!longs && !doubles)
+                return list;
+        }
+        if (ints) {
+            int[] a = new int[n];
+            for (int i = 0; i < n; i++)
+                a[i] = (Integer) list.get(i);
+            return new Ints(a);
+        }
+        if (longs) {
+            long[] a = new long[n];
+            for (int i = 0; i < n; i++)
+                a[i] = ((Number) list.get(i)).longValue();
+            return new Longs(a);
+        }
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++)
+            a[i] = (Double) list.get(i);
+        return new Doubles(a);
+    }
+
+    static final class Ints extends NumericList {
+        private final int[] a;
+
+        Ints(int[] a) {
+            this.a = a;
+        }
+
+        @Override
+        public Number get(int index) {
+            return a[index];
+        }
+
+        @Override
+        public int size() {
+            return a.length;
+        }
+
+        @Override
+        public long getLong(int index) {
+            return a[index];
+        }
+
+        @Override
+        public double getDouble(int index) {
+            return a[index];
+        }
+
+        @Override
+        public Object array() {
+            return a;
+        }
+    }
+
+    static final class Longs extends NumericList {
+        private final long[] a;
+
+        Longs(long[] a) {
+            this.a = a;
+        }
+
+        /**
+         * Boxed as the parser boxes integers: Integer when in int range, else Long.
+         */
+        @Override
+        public Number get(int index) {
+            long v = a[index];
+            if (v == (int) v)
+                return (int) v;
+            return v;
+        }
+
+        @Override
+        public int size() {
+            return a.length;
+        }
+
+        @Override
+        public long getLong(int index) {
+            return a[index];
+        }
+
+        @Override
+        public double getDouble(int index) {
+            return a[index];
+        }
+
+        @Override
+        public Object array() {
+            return a;
+        }
+    }
+
+    static final class Doubles extends NumericList {
+        private final double[] a;
+
+        Doubles(double[] a) {
+            this.a = a;
+        }
+
+        @Override
+        public Number get(int index) {
+            return a[index];
+        }
+
+        @Override
+        public int size() {
+            return a.length;
+        }
+
+        /**
+         * @return the value truncated to a long
+         */
+        @Override
+        public long getLong(int index) {
+            return (long) a[index];
+        }
+
+        @Override
+        public double getDouble(int index) {
+            return a[index];
+        }
+
+        @Override
+        public Object array() {
+            return a;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ra.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * Appendable encoding chars straight to UTF-8 into a small buffer,
+ * handing full buffers to the byte target. Unpaired surrogates are written as '?'.
+ * flush() must be called to push out the last bytes.
+ * Unsynchronized.
+ */
+abstract class UTF8Appendable implements Appendable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int count;
+    /** pending high surrogate, 0 if none */
+    private char high;
+
+    static UTF8Appendable to(final OutputStream out) {
+        return new UTF8Appendable() {
+            @Override
+            protected void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * @throws java.nio.BufferOverflowException from flush() if the buffer runs out of room
+     */
+    static UTF8Appendable to(final ByteBuffer out) {
+        return new UTF8Appendable() {
+            @Override
+            protected void write(byte[] b, int off, int len) {
+                out.put(b, off, len);
+            }
+        };
+    }
+
+    static UTF8Appendable to(final MessageDigest digest) {
+        return new UTF8Appendable() {
+            @Override
+            protected void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * @throws IOException wrapping the SignatureException if the signature is not initialized
+     */
+    static UTF8Appendable to(final Signature signature) {
+        return new UTF8Appendable() {
+            @Override
+            protected void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    signature.update(b, off, len);
+                } catch (SignatureException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Receive the next encoded bytes.
+     */
+    protected abstract void write(byte[] b, int off, int len) throws IOException;
+
+    @Override
+    public Appendable append(CharSequence s) throws IOException {
+        if (s == null)
+            s = "null";
+        return append(s, 0, s.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence s, int start, int end) throws IOException {
+        if (s == null)
+            s = "null";
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80 && high == 0) {
+                if (count == buf.length)
+                    drain();
+                buf[count++] = (byte) c;
+            } else
+                append(c);
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        if (count + 4 > buf.length)
+            drain();
+        if (high != 0) {
+            char h = high;
+            high = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(h, c);
+                buf[count++] = (byte) (0xF0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (cp & 0x3F));
+                return this;
+            }
+            buf[count++] = '?';
+            if (count + 4 > buf.length)
+                drain();
+        }
+        if (c < 0x80)
+            buf[count++] = (byte) c;
+        else if (c < 0x800) {
+            buf[count++] = (byte) (0xC0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c))
+            high = c;
+        else if (Character.isLowSurrogate(c))
+            buf[count++] = '?';
+        else {
+            buf[count++] = (byte) (0xE0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Hand over everything buffered so far.
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            write(buf, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,607 @@
+package ra.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON straight from UTF-8 bytes.
+ * Structure is tokenized on the raw bytes; only string values are decoded,
+ * each one directly from its own byte range when it is materialized.
+ * One instance per parse, unsynchronized.
+ */
+final class UTF8JSONParser {
+
+    /** marks a container just opened by parseValue, with no value to add yet */
+    private static final Object OPENED = new Object();
+
+    private final byte[] b;
+    private final int start;
+    private final int end;
+    private int pos;
+    /** scratch space for strings containing escapes */
+    private char[] chars;
+    /** null unless keys are interned */
+    private final JSONSymbolTable keys;
+
+    /** the last number scanned, see JSONNumber.valueOf(boolean, long, int, int, boolean) */
+    private boolean negative;
+    private long mantissa;
+    private int digits;
+    private int exp10;
+    private boolean integral;
+
+    /** homogeneous numeric arrays become NumericLists */
+    private boolean primitiveArrays;
+
+    /** source of recycled containers, null to allocate new ones */
+    private JSONArena arena;
+    /** build CompactMaps, filling a map from the arena first */
+    private boolean compactMaps;
+    /** return LazyNumbers over the source bytes */
+    private boolean lazyNumbers;
+
+    /** view handed to event handlers */
+    private CharSlice slice;
+
+    UTF8JSONParser(byte[] b, int off, int len, JSONSymbolTable keys) {
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        this.b = b;
+        this.start = off;
+        this.end = off + len;
+        this.pos = off;
+        this.keys = keys;
+    }
+
+    UTF8JSONParser setPrimitiveArrays(boolean primitiveArrays) {
+        this.primitiveArrays = primitiveArrays;
+        return this;
+    }
+
+    UTF8JSONParser setCompactMaps(boolean compactMaps) {
+        this.compactMaps = compactMaps;
+        return this;
+    }
+
+    UTF8JSONParser setLazyNumbers(boolean lazyNumbers) {
+        this.lazyNumbers = lazyNumbers;
+        return this;
+    }
+
+    UTF8JSONParser setArena(JSONArena arena) {
+        this.arena = arena;
+        return this;
+    }
+
+    /**
+     * @return the first value in the range, or null if the range holds only whitespace
+     */
+    Object parse() {
+        if (skipWhitespace() < 0)
+            return null;
+        return parseValue();
+    }
+
+    /**
+     * @return the value filling the whole range, only whitespace may surround it
+     */
+    Object parseComplete() {
+        Object value = parseValue();
+        if (skipWhitespace() >= 0)
+            throw syntaxError("unexpected character after value");
+        return value;
+    }
+
+    /**
+     * Report the first value in the range to the handler, building nothing.
+     * @return false if the range holds only whitespace
+     */
+    boolean parse(JSONHandler handler) {
+        if (skipWhitespace() < 0)
+            return false;
+        slice = new CharSlice();
+        emitValue(handler);
+        return true;
+    }
+
+    /**
+     * Report the value at pos and everything it contains without recursion: only whether each
+     * open container is an array is kept, on an explicit stack, so nesting is bounded by the heap.
+     */
+    private void emitValue(JSONHandler h) {
+        // open containers, innermost last, true for arrays
+        boolean[] arrays = null;
+        int depth = 0;
+        while (true) {
+            // dispatch once on the first byte of the value
+            int c = skipWhitespace();
+            boolean opened = false;
+            switch (c) {
+                case '{':
+                case '[':
+                    if (arrays == null)
+                        arrays = new boolean[16];
+                    else if (depth == arrays.length)
+                        arrays = Arrays.copyOf(arrays, depth * 2);
+                    arrays[depth++] = c == '[';
+                    pos++;
+                    if (c == '[')
+                        h.startArray();
+                    else
+                        h.startObject();
+                    opened = true;
+                    break;
+                case '"':
+                    h.string(emitString());
+                    break;
+                case 't':
+                    literal("true");
+                    h.bool(true);
+                    break;
+                case 'f':
+                    literal("false");
+                    h.bool(false);
+                    break;
+                case 'n':
+                    literal("null");
+                    h.nul();
+                    break;
+                case -1:
+                    throw syntaxError("unexpected end of input");
+                default:
+                    if (c != '-' && (c < '0' || c > '9'))
+                        throw syntaxError("unexpected character '" + (char) c + "'");
+                    emitNumber(h);
+            }
+
+            // close the containers that end here, up to the start of the next value
+            while (true) {
+                if (depth == 0)
+                    return;
+                boolean isArray = arrays[depth - 1];
+                c = skipWhitespace();
+                if (c == (isArray ? ']' : '}')) {
+                    pos++;
+                    depth--;
+                    if (isArray)
+                        h.endArray();
+                    else
+                        h.endObject();
+                    opened = false;
+                    continue;
+                }
+                if (!opened) {
+                    if (c != ',')
+                        throw syntaxError(isArray ? "expected ',' or ']'" : "expected ',' or '}'");
+                    pos++;
+                }
+                if (!isArray) {
+                    if (skipWhitespace() != '"')
+                        throw syntaxError("expected key");
+                    h.key(emitString());
+                    if (skipWhitespace() != ':')
+                        throw syntaxError("expected ':'");
+                    pos++;
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the string at pos as a view over the bytes if plain ASCII, else over the decoded chars
+     */
+    private CharSequence emitString() {
+        int s = pos + 1;
+        for (int i = s; i < end; i++) {
+            byte c = b[i];
+            if (c == '"') {
+                pos = i + 1;
+                return slice.set(b, s, i - s);
+            }
+            if (c == '\\' || c < 0x20)
+                break;
+        }
+        int n = decodeString(s);
+        return slice.set(chars, 0, n);
+    }
+
+    private void emitNumber(JSONHandler h) {
+        int s = scanNumber();
+        if (integral) {
+            if (digits <= JSONNumber.MAX_MANTISSA_DIGITS) {
+                h.number(negative ? -mantissa : mantissa);
+                return;
+            }
+        } else {
+            double d = JSONNumber.toDouble(mantissa, digits, exp10);
+            if (!Double.isNaN(d)) {
+                h.number(negative ? -d : d);
+                return;
+            }
+        }
+        Number n = JSONNumber.valueOf(new String(b, s, pos - s, StandardCharsets.ISO_8859_1), integral);
+        if (n instanceof Long)
+            h.number(n.longValue());
+        else if (n instanceof Double)
+            h.number(n.doubleValue());
+        else
+            h.bigNumber(slice.set(b, s, pos - s));
+    }
+
+    /**
+     * Parse the value at pos and everything it contains without recursion, as JSONParser does for
+     * strings: open containers are kept on an explicit stack, so nesting is bounded by the heap.
+     */
+    private Object parseValue() {
+        // open containers, innermost last, with the key awaiting its value in each object
+        Object[] stack = null;
+        String[] pendingKeys = null;
+        int depth = 0;
+        while (true) {
+            // dispatch once on the first byte of the value
+            Object value;
+            int c = skipWhitespace();
+            switch (c) {
+                case '{':
+                case '[':
+                    if (stack == null) {
+                        stack = new Object[16];
+                        pendingKeys = new String[16];
+                    } else if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                        pendingKeys = Arrays.copyOf(pendingKeys, depth * 2);
+                    }
+                    if (c == '[')
+                        stack[depth++] = arena != null ? arena.list() : new ArrayList();
+                    else
+                        stack[depth++] = arena != null ? arena.map() : new LinkedHashMap();
+                    pos++;
+                    value = OPENED;
+                    break;
+                case '"':
+                    value = parseString();
+                    break;
+                case 't':
+                    literal("true");
+                    value = Boolean.TRUE;
+                    break;
+                case 'f':
+                    literal("false");
+                    value = Boolean.FALSE;
+                    break;
+                case 'n':
+                    literal("null");
+                    value = null;
+                    break;
+                case -1:
+                    throw syntaxError("unexpected end of input");
+                default:
+                    if (c != '-' && (c < '0' || c > '9'))
+                        throw syntaxError("unexpected character '" + (char) c + "'");
+                    value = lazyNumbers ? new LazyNumber(b, scanNumber(), pos) : parseNumber();
+            }
+
+            // hand the value to its container and close the containers that end here,
+            // up to the start of the next value
+            while (true) {
+                if (depth == 0)
+                    return value;
+                int top = depth - 1;
+                Object container = stack[top];
+                boolean isArray = container instanceof ArrayList;
+                if (value != OPENED) {
+                    if (isArray)
+                        ((ArrayList) container).add(value);
+                    else
+                        ((Map) container).put(pendingKeys[top], value);
+                }
+
+                c = skipWhitespace();
+                if (c == (isArray ? ']' : '}')) {
+                    pos++;
+                    value = isArray ? endArray((ArrayList) container) : endObject((Map) container);
+                    stack[top] = null;
+                    pendingKeys[top] = null;
+                    depth--;
+                    continue;
+                }
+                if (value != OPENED) {
+                    if (c != ',')
+                        throw syntaxError(isArray ? "expected ',' or ']'" : "expected ',' or '}'");
+                    pos++;
+                }
+                if (!isArray) {
+                    if (skipWhitespace() != '"')
+                        throw syntaxError("expected key");
+                    pendingKeys[top] = keys == null ? parseString() : parseKey();
+                    if (skipWhitespace() != ':')
+                        throw syntaxError("expected ':'");
+                    pos++;
+                }
+                break;
+            }
+        }
+    }
+
+    private Map endObject(Map map) {
+        if (!compactMaps)
+            return map;
+        Map compact = CompactMap.of(map);
+        arena.recycle((LinkedHashMap) map);
+        return compact;
+    }
+
+    private List endArray(ArrayList list) {
+        if (!primitiveArrays)
+            return list;
+        List compact = NumericList.compact(list);
+        if (compact != list && arena != null)
+            arena.recycle(list);
+        return compact;
+    }
+
+    /**
+     * Plain ASCII keys are resolved straight from their bytes; anything else is decoded first.
+     */
+    private String parseKey() {
+        int s = pos + 1;
+        for (int i = s; i < end; i++) {
+            byte c = b[i];
+            if (c == '"') {
+                pos = i + 1;
+                return keys.lookupAscii(b, s, i);
+            }
+            if (c == '\\' || c < 0x20)
+                break;
+        }
+        String key = parseString();
+        return keys.lookup(key, 0, key.length());
+    }
+
+    private String parseString() {
+        int s = ++pos;
+        boolean ascii = true;
+        while (pos < end) {
+            byte c = b[pos];
+            if (c == '"') {
+                pos++;
+                return ascii
+                        ? new String(b, s, pos - 1 - s, StandardCharsets.ISO_8859_1)
+                        : new String(b, s, pos - 1 - s, StandardCharsets.UTF_8);
+            }
+            if (c == '\\')
+                return parseEscapedString(s);
+            if (c < 0)
+                ascii = false;
+            else if (c < 0x20)
+                throw syntaxError("unescaped control character in string");
+            pos++;
+        }
+        throw syntaxError("unterminated string");
+    }
+
+    /**
+     * Slow path for strings with escapes: decode UTF-8 and escapes together from s.
+     */
+    private String parseEscapedString(int s) {
+        int n = decodeString(s);
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * Decode the string from s into chars.
+     * @return the number of chars
+     */
+    private int decodeString(int s) {
+        pos = s;
+        if (chars == null || chars.length < 64)
+            chars = new char[64];
+        int n = 0;
+        while (true) {
+            if (pos >= end)
+                throw syntaxError("unterminated string");
+            if (n + 2 > chars.length) {
+                char[] c2 = new char[chars.length * 2];
+                System.arraycopy(chars, 0, c2, 0, n);
+                chars = c2;
+            }
+            int c = b[pos];
+            if (c == '"') {
+                pos++;
+                return n;
+            }
+            if (c == '\\') {
+                chars[n++] = readEscape();
+            } else if (c >= 0) {
+                if (c < 0x20)
+                    throw syntaxError("unescaped control character in string");
+                chars[n++] = (char) c;
+                pos++;
+            } else {
+                int cp = readCodePoint();
+                if (cp >= 0x10000) {
+                    chars[n++] = Character.highSurrogate(cp);
+                    chars[n++] = Character.lowSurrogate(cp);
+                } else
+                    chars[n++] = (char) cp;
+            }
+        }
+    }
+
+    private char readEscape() {
+        if (pos + 1 >= end)
+            throw syntaxError("unterminated string");
+        byte c = b[pos + 1];
+        pos += 2;
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                if (pos + 4 > end)
+                    throw syntaxError("unterminated string");
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    int d = Character.digit((char) b[pos++], 16);
+                    if (d < 0)
+                        throw syntaxError("malformed unicode escape");
+                    v = (v << 4) | d;
+                }
+                return (char) v;
+            default:
+                throw syntaxError("invalid escape '\\" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Decode one multi-byte UTF-8 sequence at pos; malformed input decodes to U+FFFD.
+     */
+    private int readCodePoint() {
+        int c = b[pos++] & 0xFF;
+        int need;
+        int cp;
+        if (c >= 0xF0 && c <= 0xF4) {
+            need = 3;
+            cp = c & 0x07;
+        } else if (c >= 0xE0 && c < 0xF0) {
+            need = 2;
+            cp = c & 0x0F;
+        } else if (c >= 0xC2 && c < 0xE0) {
+            need = 1;
+            cp = c & 0x1F;
+        } else
+            return 0xFFFD;
+        for (int i = 0; i < need; i++) {
+            if (pos >= end || (b[pos] & 0xC0) != 0x80)
+                return 0xFFFD;
+            cp = (cp << 6) | (b[pos++] & 0x3F);
+        }
+        if ((need == 2 && (cp < 0x800 || (cp >= 0xD800 && cp <= 0xDFFF))) || (need == 3 && (cp < 0x10000 || cp > 0x10FFFF)))
+            return 0xFFFD;
+        return cp;
+    }
+
+    /**
+     * Validate and accumulate the number in one pass; only falls back to the text when the
+     * mantissa cannot decide the value exactly.
+     */
+    private Number parseNumber() {
+        int s = scanNumber();
+        Number result = JSONNumber.valueOf(negative, mantissa, digits, exp10, integral);
+        if (result != null)
+            return result;
+        return JSONNumber.valueOf(new String(b, s, pos - s, StandardCharsets.ISO_8859_1), integral);
+    }
+
+    /**
+     * Scan the number at pos into the number fields.
+     * @return the start of the number
+     */
+    private int scanNumber() {
+        int s = pos;
+        negative = false;
+        mantissa = 0;
+        digits = 0;
+        exp10 = 0;
+        integral = true;
+
+        if (b[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        if (pos < end && b[pos] == '0')
+            pos++;
+        else {
+            int d0 = pos;
+            for (; pos < end; pos++) {
+                int d = b[pos] - '0';
+                if (d < 0 || d > 9)
+                    break;
+                if (digits < JSONNumber.MAX_MANTISSA_DIGITS)
+                    mantissa = mantissa * 10 + d;
+                else
+                    exp10++;
+                digits++;
+            }
+            if (pos == d0)
+                throw syntaxError("malformed number");
+        }
+        if (pos < end && b[pos] == '.') {
+            integral = false;
+            int d0 = ++pos;
+            for (; pos < end; pos++) {
+                int d = b[pos] - '0';
+                if (d < 0 || d > 9)
+                    break;
+                if (digits < JSONNumber.MAX_MANTISSA_DIGITS) {
+                    if (mantissa != 0 || d != 0) {
+                        mantissa = mantissa * 10 + d;
+                        digits++;
+                    }
+                    exp10--;
+                } else
+                    digits++;
+            }
+            if (pos == d0)
+                throw syntaxError("malformed number");
+        }
+        if (pos < end && (b[pos] == 'e' || b[pos] == 'E')) {
+            integral = false;
+            boolean negativeExp = false;
+            if (++pos < end && (b[pos] == '+' || b[pos] == '-'))
+                negativeExp = b[pos++] == '-';
+            int d0 = pos;
+            int exp = 0;
+            for (; pos < end; pos++) {
+                int d = b[pos] - '0';
+                if (d < 0 || d > 9)
+                    break;
+                if (exp < 100000)
+                    exp = exp * 10 + d;
+            }
+            if (pos == d0)
+                throw syntaxError("malformed number");
+            exp10 += negativeExp ? -exp : exp;
+        }
+        return s;
+    }
+
+    private void literal(String literal) {
+        int len = literal.length();
+        if (pos + len > end)
+            throw syntaxError("unexpected end of input");
+        for (int i = 0; i < len; i++) {
+            if (b[pos + i] != literal.charAt(i))
+                throw syntaxError("expected '" + literal + "'");
+        }
+        pos += len;
+    }
+
+    /**
+     * @return the next non-whitespace byte without consuming it, or -1 at the end of the range
+     */
+    private int skipWhitespace() {
+        while (pos < end) {
+            int c = b[pos] & 0xFF;
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                pos++;
+            else
+                return c;
+        }
+        return -1;
+    }
+
+    private IllegalStateException syntaxError(String msg) {
+        return new IllegalStateException("json " + msg + " at " + (pos - start));
+    }
+}
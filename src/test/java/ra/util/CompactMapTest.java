@@ -0,0 +1,158 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactMapTest {
+
+    /**
+     * Parse with setCompactMaps through the String, byte[] and JSONReader paths, with and
+     * without interned keys, and check each result against the LinkedHashMap of the plain parse.
+     */
+    private static List<Map> readAll(String json) throws IOException {
+        Map eager = (Map) JSONParser.parse(json);
+        assertSame(LinkedHashMap.class, eager.getClass());
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        List<Map> maps = new ArrayList<>();
+        for (boolean intern : new boolean[] {false, true}) {
+            JSONParser parser = new JSONParser().setCompactMaps(true).setInternKeys(intern);
+            maps.add((Map) parser.read(json));
+            maps.add((Map) parser.read(b, 0, b.length));
+            maps.add((Map) parser.read(new JSONReader(new StringReader(json))));
+        }
+        for (Map map : maps) {
+            assertSame(json, CompactMap.class, map.getClass());
+            assertEquals(json, eager, map);
+            assertEquals(json, map, eager);
+            assertEquals(json, eager.hashCode(), map.hashCode());
+            assertEquals(json, new ArrayList<>(eager.keySet()), new ArrayList<>(map.keySet()));
+            assertEquals(json, new ArrayList<>(eager.values()), new ArrayList<>(map.values()));
+            assertEquals(json, JSONParser.toString(eager), JSONParser.toString(map));
+        }
+        return maps;
+    }
+
+    private static String object(int keys) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < keys; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("\"key").append(i).append("\":").append(i);
+        }
+        return sb.append('}').toString();
+    }
+
+    @Test
+    public void smallMapsScanLinearly() throws IOException {
+        for (Map map : readAll(object(CompactMap.LINEAR_MAX))) {
+            for (int i = 0; i < CompactMap.LINEAR_MAX; i++)
+                assertEquals(i, map.get(new String("key" + i)));
+            assertNull(map.get("key8"));
+            assertFalse(map.containsKey("key"));
+            assertFalse(map.containsKey(1));
+        }
+    }
+
+    @Test
+    public void largeMapsUseTheIndex() throws IOException {
+        for (int n : new int[] {CompactMap.LINEAR_MAX + 1, 16, 17, 100, 1000}) {
+            for (Map map : readAll(object(n))) {
+                assertEquals(n, map.size());
+                for (int i = 0; i < n; i++) {
+                    assertEquals(i, map.get(new String("key" + i)));
+                    assertTrue(map.containsKey("key" + i));
+                }
+                for (int i = n; i < n + 50; i++)
+                    assertFalse(map.containsKey("key" + i));
+                assertNull(map.get("missing"));
+                assertNull(map.get(null));
+                assertNull(map.get(7));
+            }
+        }
+    }
+
+    @Test
+    public void duplicateKeysKeepFirstPositionAndLastValue() throws IOException {
+        StringBuilder large = new StringBuilder(object(20));
+        large.setLength(large.length() - 1);
+        large.append(",\"key3\":\"last\"}");
+        for (String json : new String[] {"{\"a\":1,\"b\":2,\"a\":3}", large.toString()}) {
+            for (Map map : readAll(json)) {
+                Iterator<Map.Entry> it = map.entrySet().iterator();
+                Map.Entry first = it.next();
+                if (map.size() == 2) {
+                    assertEquals("a", first.getKey());
+                    assertEquals(3, first.getValue());
+                    assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.keySet()));
+                } else {
+                    assertEquals(20, map.size());
+                    assertEquals("last", map.get("key3"));
+                    assertEquals("key3", new ArrayList<>(map.keySet()).get(3));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void equalsAndHashCodeMatchLinkedHashMap() throws IOException {
+        String json = "{\"s\":\"x\",\"n\":null,\"o\":{\"k\":[1,{}]},\"a\":[],\"b\":true}";
+        Map map = readAll(json).get(0);
+        Map reordered = (Map) JSONParser.parse("{\"b\":true,\"a\":[],\"o\":{\"k\":[1,{}]},\"n\":null,\"s\":\"x\"}");
+        assertEquals(reordered, map);
+        assertEquals(map, reordered);
+        assertEquals(reordered.hashCode(), map.hashCode());
+        reordered.put("n", 0);
+        assertFalse(map.equals(reordered));
+        assertFalse(reordered.equals(map));
+        assertEquals(new LinkedHashMap(), CompactMap.of(new LinkedHashMap()));
+        assertSame(CompactMap.EMPTY, new JSONParser().setCompactMaps(true).read("{}"));
+    }
+
+    @Test
+    public void unmodifiable() throws IOException {
+        for (Map map : readAll(object(CompactMap.LINEAR_MAX + 4))) {
+            Runnable[] writes = {
+                    () -> map.put("key0", 1),
+                    () -> map.put("new", 1),
+                    () -> map.remove("key0"),
+                    () -> map.putAll(Collections.singletonMap("x", 1)),
+                    () -> map.clear(),
+                    () -> map.keySet().remove("key0"),
+                    () -> map.values().clear(),
+                    () -> ((Map.Entry) map.entrySet().iterator().next()).setValue(2),
+                    () -> {
+                        Iterator it = map.entrySet().iterator();
+                        it.next();
+                        it.remove();
+                    },
+                    () -> map.entrySet().add(new AbstractMap.SimpleEntry<>("x", 1)),
+            };
+            for (Runnable write : writes) {
+                try {
+                    write.run();
+                    fail("modified");
+                } catch (UnsupportedOperationException expected) {
+                }
+            }
+            assertEquals(readAll(object(CompactMap.LINEAR_MAX + 4)).get(0), map);
+        }
+    }
+}
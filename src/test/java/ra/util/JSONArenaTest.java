@@ -0,0 +1,145 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JSONArenaTest {
+
+    /**
+     * Run the body on a thread of its own, so it starts with an empty pool.
+     */
+    private static void onNewThread(final Runnable body) throws Throwable {
+        final Throwable[] failure = new Throwable[1];
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        });
+        t.start();
+        t.join();
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    /**
+     * @return every Map and List of the tree, by identity
+     */
+    private static Set<Object> containers(Object tree) {
+        Set<Object> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        work.push(tree);
+        while (!work.isEmpty()) {
+            Object o = work.pop();
+            if (!(o instanceof Map) && !(o instanceof List))
+                continue;
+            found.add(o);
+            for (Object child : o instanceof Map ? ((Map) o).values() : (Collection) o) {
+                if (child != null)
+                    work.push(child);
+            }
+        }
+        return found;
+    }
+
+    private static Object read(JSONParser parser, String json, boolean bytes) {
+        if (!bytes)
+            return parser.read(json);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        return parser.read(b, 0, b.length);
+    }
+
+    @Test
+    public void releasedContainersComeBackClearedAndAreReused() throws Throwable {
+        for (final boolean bytes : new boolean[] {false, true}) {
+            onNewThread(() -> {
+                JSONParser parser = new JSONParser().setReuseContainers(true);
+                Object first = read(parser, "{\"a\":[1,{\"b\":[2,3]}],\"c\":{\"d\":{}}}", bytes);
+                Set<Object> released = containers(first);
+                assertEquals(6, released.size());
+                parser.release(first);
+                for (Object c : released)
+                    assertTrue(c instanceof Map ? ((Map) c).isEmpty() : ((List) c).isEmpty());
+
+                String json = "[{\"x\":[\"y\"]},{\"z\":{}},{}]";
+                Object second = read(parser, json, bytes);
+                assertEquals(JSONParser.parse(json), second);
+                Set<Object> reused = containers(second);
+                assertEquals(6, reused.size());
+                for (Object c : reused)
+                    assertTrue(released.contains(c));
+            });
+        }
+    }
+
+    @Test
+    public void nothingIsPooledWithoutReuse() throws Throwable {
+        onNewThread(() -> {
+            JSONParser plain = new JSONParser();
+            Object first = plain.read("[{\"a\":[]}]");
+            Set<Object> before = containers(first);
+            plain.release(first);
+            assertEquals(Collections.singletonMap("a", Collections.emptyList()), ((List) first).get(0));
+            for (Object c : containers(new JSONParser().setReuseContainers(true).read("[{\"a\":[]}]")))
+                assertFalse(before.contains(c));
+        });
+    }
+
+    @Test
+    public void largeContainersAreNotPooled() throws Throwable {
+        onNewThread(() -> {
+            JSONParser parser = new JSONParser().setReuseContainers(true);
+            StringBuilder big = new StringBuilder("[0");
+            for (int i = 1; i <= 256; i++)
+                big.append(',').append(i);
+            big.append(']');
+            Object tree = parser.read(big.toString());
+            parser.release(tree);
+            Object next = parser.read("[]");
+            assertNotSame(tree, next);
+            parser.release(next);
+
+            Object small = parser.read(big.substring(0, big.lastIndexOf(",")) + "]");
+            assertEquals(256, ((List) small).size());
+            parser.release(small);
+            assertSame(small, parser.read("[]"));
+        });
+    }
+
+    @Test
+    public void poolIsBounded() throws Throwable {
+        onNewThread(() -> {
+            JSONParser parser = new JSONParser().setReuseContainers(true);
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 20000; i++)
+                json.append(i == 0 ? "{}" : ",{}");
+            json.append(']');
+            Object first = parser.read(json.toString());
+            Set<Object> released = containers(first);
+            assertEquals(20001, released.size());
+            parser.release(first);
+
+            int reused = 0;
+            for (Object c : containers(parser.read(json.toString()))) {
+                if (released.contains(c))
+                    reused++;
+            }
+            assertEquals(16384, reused);
+        });
+    }
+}
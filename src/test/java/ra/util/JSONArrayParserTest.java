@@ -0,0 +1,124 @@
+package ra.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class JSONArrayParserTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return the json in the middle of a larger buffer, starting at byte 5
+     */
+    private static byte[] padded(String json) {
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        byte[] padded = new byte[b.length + 10];
+        System.arraycopy(b, 0, padded, 5, b.length);
+        return padded;
+    }
+
+    /**
+     * A document of several batches, with the element at index bad malformed if bad >= 0.
+     */
+    private static String records(int count, int bad) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(",\n");
+            if (i == bad)
+                sb.append("{\"id\":}");
+            else
+                sb.append("{\"id\":").append(i).append(",\"name\":\"r\\u00e9cord\",\"tags\":[\"a\",\"]\"]}");
+        }
+        return sb.append(']').toString();
+    }
+
+    private IllegalStateException failure(String json) {
+        byte[] b = padded(json);
+        try {
+            JSONArrayParser.parse(b, 5, b.length - 10, pool);
+        } catch (IllegalStateException e) {
+            return e;
+        }
+        fail("accepted " + json);
+        return null;
+    }
+
+    @Test
+    public void matchesJSONParser() {
+        String json = records(20000, -1);
+        byte[] b = padded(json);
+        List<Object> values = JSONArrayParser.parse(b, 5, b.length - 10, pool);
+        assertEquals(JSONParser.parse(json), values);
+
+        List<Object> ordered = new ArrayList<>();
+        JSONArrayParser.forEach(b, 5, b.length - 10, pool, ordered::add, true);
+        assertEquals(values, ordered);
+
+        ConcurrentLinkedQueue<Object> unordered = new ConcurrentLinkedQueue<>();
+        JSONArrayParser.forEach(b, 5, b.length - 10, pool, unordered::add, false);
+        long sum = 0;
+        for (Object v : unordered)
+            sum += ((Number) ((Map) v).get("id")).longValue();
+        assertEquals(20000, unordered.size());
+        assertEquals(20000L * 19999 / 2, sum);
+    }
+
+    @Test
+    public void emptyArray() {
+        byte[] b = padded(" [ \n] ");
+        assertEquals(Collections.emptyList(), JSONArrayParser.parse(b, 5, b.length - 10, pool));
+    }
+
+    @Test
+    public void outerErrorsAreRelativeToTheRange() {
+        assertEquals("json expected '[' at 1", failure(" {}").getMessage());
+        assertEquals("json unexpected character after value at 4", failure("[1] x").getMessage());
+        assertEquals("json unexpected '}' at 2", failure("[1}").getMessage());
+        assertEquals("json unexpected end of input at 3", failure("[1,").getMessage());
+    }
+
+    @Test
+    public void elementErrorsAreRelativeToTheRange() {
+        assertEquals("JSON array element 1 at byte 3: json unexpected character 'x' at 0", failure("[1,x]").getMessage());
+    }
+
+    @Test
+    public void elementErrorsFromWorkersAreNotWrapped() {
+        String json = records(20000, 15000);
+        int at = json.indexOf("{\"id\":}");
+        String expected = "JSON array element 15000 at byte " + (at - 1) + ": json unexpected character '}' at 7";
+        IllegalStateException e = failure(json);
+        assertEquals(expected, e.getMessage());
+        assertSame(IllegalStateException.class, e.getCause().getClass());
+        assertFalse(e.getCause().getMessage().startsWith("JSON array element"));
+
+        byte[] b = padded(json);
+        for (boolean ordered : new boolean[] {true, false}) {
+            try {
+                JSONArrayParser.forEach(b, 5, b.length - 10, pool, new ConcurrentLinkedQueue<>()::add, ordered);
+                fail();
+            } catch (IllegalStateException forEach) {
+                assertEquals(expected, forEach.getMessage());
+            }
+        }
+    }
+}
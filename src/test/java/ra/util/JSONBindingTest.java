@@ -0,0 +1,238 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONBindingTest {
+
+    enum Color { RED, GREEN }
+
+    static class Item {
+        String sku;
+        int count;
+
+        Item() {}
+
+        Item(String sku, int count) {
+            this.sku = sku;
+            this.count = count;
+        }
+    }
+
+    static class Everything {
+        int i;
+        long l;
+        short s;
+        byte b;
+        double d;
+        float f;
+        boolean z;
+        char c;
+        Integer boxed;
+        String text;
+        Color color;
+        BigDecimal price;
+        BigInteger huge;
+        Number number;
+        Object tree;
+        int[] ints;
+        long[] longs;
+        double[] doubles;
+        float[] floats;
+        short[] shorts;
+        byte[] bytes;
+        boolean[] flags;
+        char[] chars;
+        String[] names;
+        Item[] items;
+        List<Item>[] itemLists;
+        List<Integer> list;
+        Collection<String> collection;
+        Set<String> set;
+        SortedSet<Integer> sorted;
+        Queue<Long> queue;
+        Deque<String> deque;
+        Map<String, List<Integer>> map;
+        SortedMap<String, Item> sortedMap;
+        Item item;
+        Everything next;
+    }
+
+    private static Everything sample() {
+        Everything e = new Everything();
+        e.i = -7;
+        e.l = Long.MAX_VALUE;
+        e.s = Short.MIN_VALUE;
+        e.b = Byte.MAX_VALUE;
+        e.d = 0.1;
+        e.f = 1.5f;
+        e.z = true;
+        e.c = '\u00e9';
+        e.boxed = 42;
+        e.text = "a\"b\n";
+        e.color = Color.GREEN;
+        e.price = new BigDecimal("12345678901234567890.123456789");
+        e.huge = new BigInteger("123456789012345678901234567890");
+        e.number = 2.5;
+        e.tree = JSONParser.parse("{\"x\":[1,\"y\",null]}");
+        e.ints = new int[] {1, 2, 3};
+        e.longs = new long[] {Long.MIN_VALUE};
+        e.doubles = new double[] {0.5, -1e300};
+        e.floats = new float[] {0.1f};
+        e.shorts = new short[] {-1, 300};
+        e.bytes = new byte[] {-128, 127};
+        e.flags = new boolean[] {true, false};
+        e.chars = new char[] {'x', '"'};
+        e.names = new String[] {"a", null, "b"};
+        e.items = new Item[] {new Item("p", 1), null};
+        e.itemLists = new List[] {Arrays.asList(new Item("q", 2))};
+        e.list = Arrays.asList(1, null, 3);
+        e.collection = Arrays.asList("c");
+        e.set = new LinkedHashSet<>(Arrays.asList("z", "a"));
+        e.sorted = new TreeSet<>(Arrays.asList(3, 1, 2));
+        e.queue = new ArrayDeque<>(Arrays.asList(1L, 2L));
+        e.deque = new ArrayDeque<>(Arrays.asList("first", "last"));
+        e.map = new LinkedHashMap<>();
+        e.map.put("k", Arrays.asList(4, 5));
+        e.sortedMap = new TreeMap<>();
+        e.sortedMap.put("b", new Item("r", 3));
+        e.item = new Item("s", 4);
+        e.next = new Everything();
+        e.next.text = "inner";
+        return e;
+    }
+
+    @Test
+    public void roundTrip() {
+        String json = JSONBinding.toString(sample());
+        Everything e = JSONBinding.read(json, Everything.class);
+        assertEquals(json, JSONBinding.toString(e));
+
+        assertEquals(new BigDecimal("12345678901234567890.123456789"), e.price);
+        assertEquals(new BigInteger("123456789012345678901234567890"), e.huge);
+        assertEquals(2.5, e.number);
+        assertEquals(e.tree, JSONParser.parse("{\"x\":[1,\"y\",null]}"));
+        assertArrayEquals(new int[] {1, 2, 3}, e.ints);
+        assertArrayEquals(new char[] {'x', '"'}, e.chars);
+        assertArrayEquals(new String[] {"a", null, "b"}, e.names);
+        assertEquals("p", e.items[0].sku);
+        assertNull(e.items[1]);
+        assertEquals("q", e.itemLists[0].get(0).sku);
+        assertTrue(e.set instanceof LinkedHashSet);
+        assertEquals(Arrays.asList("z", "a"), Arrays.asList(e.set.toArray()));
+        assertTrue(e.sorted instanceof TreeSet);
+        assertEquals(Arrays.asList(1, 2, 3), Arrays.asList(e.sorted.toArray()));
+        assertEquals("last", e.deque.peekLast());
+        assertEquals(Long.valueOf(1), e.queue.peek());
+        assertEquals(Arrays.asList(4, 5), e.map.get("k"));
+        assertEquals("r", e.sortedMap.get("b").sku);
+        assertEquals("inner", e.next.text);
+    }
+
+    @Test
+    public void topLevelTypes() {
+        assertArrayEquals(new int[] {1, 2}, JSONBinding.read("[1,2]", int[].class));
+        assertEquals(new BigDecimal("1.10"), JSONBinding.read("1.10", BigDecimal.class));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a")), JSONBinding.read("[\"a\",\"a\"]", Set.class));
+        assertEquals("{\"a\":1}", JSONBinding.toString(java.util.Collections.singletonMap("a", 1)));
+    }
+
+    static class HasDate {
+        String name;
+        Date when;
+    }
+
+    static class HasIntKeys {
+        Map<Integer, String> byId;
+    }
+
+    static class HasInterface {
+        Runnable task;
+    }
+
+    private static void assertRejected(Class<?> type, String field) {
+        try {
+            JSONBinding.read("{}", type);
+            fail("bound " + type);
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("json cannot bind field " + type.getName() + "." + field + " "));
+        }
+        try {
+            JSONBinding.toString(newInstance(type));
+            fail("wrote " + type);
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static Object newInstance(Class<?> type) {
+        try {
+            java.lang.reflect.Constructor<?> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            return c.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void unsupportedFieldTypesAreRejectedWhenBound() {
+        assertRejected(HasDate.class, "when");
+        assertRejected(HasIntKeys.class, "byId");
+        assertRejected(HasInterface.class, "task");
+    }
+
+    @Test
+    public void valuesThatDoNotFitTheirField() {
+        String[] bad = {
+                "{\"ints\":[1,null]}",
+                "{\"ints\":[1.5]}",
+                "{\"bytes\":[128]}",
+                "{\"huge\":1.5}",
+                "{\"price\":\"1\"}",
+                "{\"sorted\":[1,null]}",
+                "{\"deque\":[null]}",
+                "{\"color\":\"BLUE\"}",
+                "{\"chars\":[\"ab\"]}",
+                "{\"item\":[]}",
+        };
+        for (String json : bad) {
+            try {
+                JSONBinding.read(json, Everything.class);
+                fail("accepted " + json);
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void nullsKeepPrimitiveDefaults() {
+        Everything e = JSONBinding.read("{\"i\":null,\"text\":null,\"ints\":null,\"huge\":1e3}", Everything.class);
+        assertEquals(0, e.i);
+        assertNull(e.text);
+        assertNull(e.ints);
+        assertEquals(BigInteger.valueOf(1000), e.huge);
+    }
+}
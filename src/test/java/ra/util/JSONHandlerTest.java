@@ -0,0 +1,169 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONHandlerTest {
+
+    /**
+     * Records every event as text.
+     */
+    private static final class Recorder implements JSONHandler {
+
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void startObject() {
+            events.add("{");
+        }
+
+        @Override
+        public void endObject() {
+            events.add("}");
+        }
+
+        @Override
+        public void startArray() {
+            events.add("[");
+        }
+
+        @Override
+        public void endArray() {
+            events.add("]");
+        }
+
+        @Override
+        public void key(CharSequence key) {
+            events.add("key " + key);
+        }
+
+        @Override
+        public void string(CharSequence value) {
+            events.add("string " + value);
+        }
+
+        @Override
+        public void number(long value) {
+            events.add("long " + value);
+        }
+
+        @Override
+        public void number(double value) {
+            events.add("double " + value);
+        }
+
+        @Override
+        public void bigNumber(CharSequence text) {
+            events.add("big " + text);
+        }
+
+        @Override
+        public void bool(boolean value) {
+            events.add("bool " + value);
+        }
+
+        @Override
+        public void nul() {
+            events.add("null");
+        }
+    }
+
+    private static List<String> events(String json) {
+        Recorder r = new Recorder();
+        assertTrue(JSONParser.parse(json, r));
+        Recorder bytes = new Recorder();
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        assertTrue(JSONParser.parse(ByteBuffer.wrap(b), bytes));
+        assertEquals(r.events, bytes.events);
+        return r.events;
+    }
+
+    @Test
+    public void structureAndScalars() {
+        assertEquals(Arrays.asList("{", "key a", "[", "long 1", "double 2.5", "bool true", "bool false", "null", "]",
+                "key b", "{", "}", "key c", "string x", "}"),
+                events("{\"a\":[1,2.5,true,false,null],\"b\":{},\"c\":\"x\"}"));
+    }
+
+    @Test
+    public void escapedAndNonAsciiStrings() {
+        assertEquals(Arrays.asList("[", "string a\"b\n", "string \u00e9\u4e2d", "string \ud83d\ude00", "]"),
+                events("[\"a\\\"b\\n\",\"\u00e9\\u4e2d\",\"\\ud83d\\ude00\"]"));
+        assertEquals(Arrays.asList("{", "key k\te", "string v", "}"), events("{\"k\\te\":\"v\"}"));
+    }
+
+    @Test
+    public void numberKinds() {
+        assertEquals(Arrays.asList("[", "long -9223372036854775808", "double 1.0E-5", "big 9223372036854775808",
+                "big 0.12345678901234567890", "]"),
+                events("[-9223372036854775808,1e-5,9223372036854775808,0.12345678901234567890]"));
+    }
+
+    @Test
+    public void defaultBigNumberFallsBackToDouble() {
+        final double[] got = new double[1];
+        JSONParser.parse("18446744073709551616", new JSONHandler() {
+            @Override
+            public void number(double value) {
+                got[0] = value;
+            }
+        });
+        assertEquals(18446744073709551616d, got[0], 0d);
+    }
+
+    @Test
+    public void deepNesting() {
+        int depth = 100000;
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            json.append("{\"k\":[");
+        for (int i = 0; i < depth; i++)
+            json.append("]}");
+        final int[] counts = new int[3];
+        JSONHandler counter = new JSONHandler() {
+            @Override
+            public void startObject() {
+                counts[0]++;
+            }
+
+            @Override
+            public void key(CharSequence key) {
+                counts[1]++;
+            }
+
+            @Override
+            public void endArray() {
+                counts[2]++;
+            }
+        };
+        byte[] b = json.toString().getBytes(StandardCharsets.US_ASCII);
+        assertTrue(JSONParser.parse(b, 0, b.length, counter));
+        assertTrue(JSONParser.parse(json.toString(), counter));
+        for (int count : counts)
+            assertEquals(2 * depth, count);
+    }
+
+    @Test
+    public void whitespaceOnly() {
+        assertFalse(JSONParser.parse("  ", new Recorder()));
+    }
+
+    @Test
+    public void malformedInput() {
+        try {
+            JSONParser.parse("[1,", new Recorder());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JSONMergePatchTest {
+
+    /** original, patch and result of each example in RFC 7386 appendix A */
+    private static final String[][] APPENDIX_A = {
+            {"{\"a\":\"b\"}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+            {"{\"a\":\"b\"}", "{\"b\":\"c\"}", "{\"a\":\"b\",\"b\":\"c\"}"},
+            {"{\"a\":\"b\"}", "{\"a\":null}", "{}"},
+            {"{\"a\":\"b\",\"b\":\"c\"}", "{\"a\":null}", "{\"b\":\"c\"}"},
+            {"{\"a\":[\"b\"]}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+            {"{\"a\":\"c\"}", "{\"a\":[\"b\"]}", "{\"a\":[\"b\"]}"},
+            {"{\"a\":{\"b\":\"c\"}}", "{\"a\":{\"b\":\"d\",\"c\":null}}", "{\"a\":{\"b\":\"d\"}}"},
+            {"{\"a\":[{\"b\":\"c\"}]}", "{\"a\":[1]}", "{\"a\":[1]}"},
+            {"[\"a\",\"b\"]", "[\"c\",\"d\"]", "[\"c\",\"d\"]"},
+            {"{\"a\":\"b\"}", "[\"c\"]", "[\"c\"]"},
+            {"{\"a\":\"foo\"}", "null", "null"},
+            {"{\"a\":\"foo\"}", "\"bar\"", "\"bar\""},
+            {"{\"e\":null}", "{\"a\":1}", "{\"e\":null,\"a\":1}"},
+            {"[1,2]", "{\"a\":\"b\",\"c\":null}", "{\"a\":\"b\"}"},
+            {"{}", "{\"a\":{\"bb\":{\"ccc\":null}}}", "{\"a\":{\"bb\":{}}}"},
+    };
+
+    @Test
+    public void appendixA() {
+        for (String[] c : APPENDIX_A) {
+            Object result = JSONMergePatch.apply(JSONParser.parse(c[0]), JSONParser.parse(c[1]));
+            assertEquals(c[0] + " + " + c[1], c[2], JSONParser.toString(result));
+        }
+    }
+
+    /** source and target documents without null members, which a merge patch cannot express */
+    private static final String[][] PAIRS = {
+            {"{\"a\":1,\"b\":{\"c\":[1,2],\"d\":\"x\"}}", "{\"a\":2,\"b\":{\"c\":[1,2,3],\"e\":true}}"},
+            {"{\"a\":{\"b\":{\"c\":1}},\"z\":0}", "{\"a\":{\"b\":{}},\"y\":{\"n\":[]}}"},
+            {"{\"a\":{\"b\":1}}", "{\"a\":[\"b\"]}"},
+            {"{\"a\":[1]}", "{\"a\":{\"b\":1}}"},
+            {"{\"same\":{\"x\":1}}", "{\"same\":{\"x\":1}}"},
+            {"{}", "{\"k\":\"\\u00e9\"}"},
+            {"[1]", "{\"k\":1}"},
+            {"{\"k\":1}", "\"text\""},
+    };
+
+    @Test
+    public void diffThenApplyRoundTrips() {
+        for (String[] c : PAIRS) {
+            Object patch = JSONMergePatch.diff(JSONParser.parse(c[0]), JSONParser.parse(c[1]));
+            Object patched = JSONMergePatch.apply(JSONParser.parse(c[0]), patch);
+            assertEquals(c[0] + " -> " + c[1] + " by " + JSONParser.toString(patch), JSONParser.parse(c[1]), patched);
+        }
+        Object tree = JSONParser.parse(PAIRS[0][0]);
+        assertEquals(Collections.emptyMap(), JSONMergePatch.diff(tree, tree));
+        assertEquals(Collections.emptyMap(), JSONMergePatch.diff(tree, JSONParser.parse(PAIRS[0][0])));
+        assertEquals("{\"b\":{\"d\":null,\"e\":true}}", JSONParser.toString(JSONMergePatch.diff(
+                JSONParser.parse("{\"a\":[1],\"b\":{\"d\":1}}"), JSONParser.parse("{\"a\":[1],\"b\":{\"e\":true}}"))));
+    }
+
+    private static void assertCopiedOnWrite(Map target) {
+        String before = JSONParser.toString(target);
+        Map result = (Map) JSONMergePatch.apply(target, JSONParser.parse("{\"a\":{\"x\":2},\"gone\":null}"));
+        assertNotSame(target, result);
+        assertEquals(before, JSONParser.toString(target));
+        assertEquals("{\"a\":{\"x\":2},\"b\":{\"y\":1},\"c\":[1]}", JSONParser.toString(result));
+        assertSame(target.get("b"), result.get("b"));
+        assertSame(target.get("c"), result.get("c"));
+
+        // a patch that changes nothing copies nothing
+        assertSame(target, JSONMergePatch.apply(target, JSONParser.parse("{\"a\":{\"x\":1},\"c\":[1],\"missing\":null}")));
+    }
+
+    @Test
+    public void copiesUnmodifiableTargetsOnlyWhenChanged() {
+        JSONParser compact = new JSONParser().setCompactMaps(true);
+        Map target = (Map) compact.read("{\"a\":{\"x\":1},\"b\":{\"y\":1},\"c\":[1],\"gone\":true}");
+        assertTrue(target instanceof CompactMap);
+        assertCopiedOnWrite(target);
+
+        Map inner = new LinkedHashMap();
+        inner.put("x", 1);
+        Map map = new LinkedHashMap();
+        map.put("a", Collections.unmodifiableMap(inner));
+        map.put("b", Collections.unmodifiableMap(Collections.singletonMap("y", 1)));
+        map.put("c", Collections.singletonList(1));
+        map.put("gone", true);
+        assertCopiedOnWrite(Collections.unmodifiableMap(map));
+    }
+}
@@ -0,0 +1,142 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JSONMinifierTest {
+
+    /** JSONMinifier's buffer size, where stream input is cut */
+    private static final int CHUNK = 8192;
+
+    /**
+     * Minify through the String, stream, heap buffer and direct buffer overloads and check they agree.
+     */
+    private static String minifyAll(String json) throws IOException {
+        String expected = JSONParser.stripWhitespace(json);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONParser.stripWhitespace(new ByteArrayInputStream(b), out);
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        ByteBuffer src = ByteBuffer.wrap(b);
+        ByteBuffer dst = ByteBuffer.allocate(b.length);
+        JSONParser.stripWhitespace(src, dst);
+        assertEquals(b.length, src.position());
+        assertEquals(expected, new String(dst.array(), 0, dst.position(), StandardCharsets.UTF_8));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+        direct.put(b).flip();
+        ByteBuffer directOut = ByteBuffer.allocateDirect(b.length);
+        JSONParser.stripWhitespace(direct, directOut);
+        directOut.flip();
+        byte[] result = new byte[directOut.remaining()];
+        directOut.get(result);
+        assertEquals(expected, new String(result, StandardCharsets.UTF_8));
+        return expected;
+    }
+
+    /**
+     * @return "[\"" followed by 'a's up to the given length
+     */
+    private static StringBuilder padTo(int length) {
+        StringBuilder sb = new StringBuilder("[\"");
+        while (sb.length() < length)
+            sb.append('a');
+        return sb;
+    }
+
+    @Test
+    public void stringAcrossChunkBoundary() throws IOException {
+        StringBuilder sb = new StringBuilder("{ \"k\" : \"");
+        while (sb.length() < CHUNK + 100)
+            sb.append("x { } [ ] , : \u00e9 ");
+        sb.append("\" ,\n\t\"n\" : [ 1 , 2 ] }");
+        String minified = minifyAll(sb.toString());
+        assertEquals(JSONParser.parse(sb.toString()), JSONParser.parse(minified));
+        assertEndsWith(minified, " \",\"n\":[1,2]}");
+    }
+
+    private static void assertEndsWith(String s, String suffix) {
+        assertEquals(suffix, s.substring(s.length() - suffix.length()));
+    }
+
+    @Test
+    public void escapeAtChunkBoundary() throws IOException {
+        // backslash as the last byte of the first chunk, the escaped quote as the first of the next
+        StringBuilder quote = padTo(CHUNK - 1).append("\\\" a \" , 1 ]");
+        assertEquals('\\', quote.charAt(CHUNK - 1));
+        assertEndsWith(minifyAll(quote.toString()), "a\\\" a \",1]");
+
+        // an escaped backslash ending the first chunk, so the next quote closes the string
+        StringBuilder backslash = padTo(CHUNK - 2).append("\\\\\" , \" b \" ]");
+        assertEquals('\\', backslash.charAt(CHUNK - 1));
+        assertEndsWith(minifyAll(backslash.toString()), "a\\\\\",\" b \"]");
+
+        // the closing quote as the last byte of the chunk
+        StringBuilder close = padTo(CHUNK - 1).append("\" ,  \" c \" ]");
+        assertEquals('"', close.charAt(CHUNK - 1));
+        assertEndsWith(minifyAll(close.toString()), "a\",\" c \"]");
+    }
+
+    @Test
+    public void smallDestination() {
+        byte[] b = "[ 1 , 2 ]".getBytes(StandardCharsets.US_ASCII);
+        // smaller than the input but large enough for the output
+        ByteBuffer exact = ByteBuffer.allocate(5);
+        JSONParser.stripWhitespace(ByteBuffer.wrap(b), exact);
+        assertEquals("[1,2]", new String(exact.array(), StandardCharsets.US_ASCII));
+
+        for (ByteBuffer dst : new ByteBuffer[] {ByteBuffer.allocate(4), ByteBuffer.allocateDirect(4)}) {
+            try {
+                JSONParser.stripWhitespace(ByteBuffer.wrap(b), dst);
+                fail("wrote " + dst);
+            } catch (BufferOverflowException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void overlappingHeapBuffers() {
+        for (int size : new int[] {20, 3 * CHUNK}) {
+            StringBuilder sb = new StringBuilder("[ \"s p\"");
+            while (sb.length() < size)
+                sb.append(" , 1");
+            String json = sb.append(" ]").toString();
+            String expected = JSONParser.stripWhitespace(json);
+            byte[] b = json.getBytes(StandardCharsets.US_ASCII);
+
+            for (int shift : new int[] {-3, 0, 1, 3}) {
+                // a dst with room for the whole input, and one with room only for the output
+                for (boolean tight : new boolean[] {false, true}) {
+                    byte[] shared = new byte[b.length + 6];
+                    System.arraycopy(b, 0, shared, 3, b.length);
+                    ByteBuffer src = ByteBuffer.wrap(shared, 3, b.length);
+                    ByteBuffer dst = ByteBuffer.wrap(shared);
+                    dst.position(3 + shift);
+                    if (tight)
+                        dst.limit(3 + shift + expected.length());
+                    JSONParser.stripWhitespace(src, dst);
+                    assertEquals(size + " " + shift + " " + tight, expected,
+                            new String(shared, 3 + shift, dst.position() - 3 - shift, StandardCharsets.US_ASCII));
+                }
+            }
+
+            // a slice ahead of src in the same array
+            byte[] shared = Arrays.copyOf(b, b.length * 2);
+            ByteBuffer dst = ByteBuffer.wrap(shared, 1, b.length).slice();
+            JSONParser.stripWhitespace(ByteBuffer.wrap(shared, 0, b.length), dst);
+            assertEquals(expected, new String(shared, 1, dst.position(), StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ra.util;
+
+import java.util.Random;
+
+/**
+ * Compares JSONNumber with the Integer.parseInt, Long.parseLong, Double.parseDouble chain
+ * the parser used before, on the same mix of ints, longs and doubles.
+ * Not a unit test; after mvn test-compile run
+ * java -cp target/classes:target/test-classes ra.util.JSONNumberBenchmark [count] [rounds]
+ */
+public class JSONNumberBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String[] numbers = numbers(count, new Random(42));
+
+        long sink = 0;
+        for (int round = 0; round < rounds; round++) {
+            long t0 = System.nanoTime();
+            for (String s : numbers)
+                sink += chain(s).hashCode();
+            long t1 = System.nanoTime();
+            int[] pos = new int[1];
+            for (String s : numbers) {
+                pos[0] = 0;
+                sink += JSONNumber.parse(s, pos, s.length()).hashCode();
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("round %2d  chain %7.2f ms  JSONNumber %7.2f ms%n",
+                    round, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /**
+     * A third each of ints, longs and doubles, as text.
+     */
+    static String[] numbers(int count, Random random) {
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    numbers[i] = Integer.toString(random.nextInt());
+                    break;
+                case 1:
+                    numbers[i] = Long.toString(random.nextLong());
+                    break;
+                default:
+                    numbers[i] = Double.toString((random.nextDouble() - 0.5d) * 1e6);
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * The conversion JSONParser.parseNumber did before JSONNumber.
+     */
+    static Number chain(String numericString) {
+        try {
+            return Integer.parseInt(numericString);
+        } catch (Exception e) {}
+        try {
+            return Long.parseLong(numericString);
+        } catch (Exception e) {}
+        try {
+            return Double.parseDouble(numericString);
+        } catch (Exception e) {}
+        throw new IllegalStateException("Failed to parse JSON number '" + numericString + "'");
+    }
+}
@@ -0,0 +1,151 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONNumberTest {
+
+    private static Number parse(String s) {
+        int[] pos = new int[1];
+        Number n = JSONNumber.parse(s, pos, s.length());
+        if (n != null)
+            assertEquals("end of " + s, s.length(), pos[0]);
+        return n;
+    }
+
+    private static void assertDouble(String s) {
+        assertEquals(s, Double.valueOf(Double.parseDouble(s)), parse(s));
+    }
+
+    @Test
+    public void integers() {
+        assertEquals(0, parse("0"));
+        assertEquals(-1, parse("-1"));
+        assertEquals(Integer.MAX_VALUE, parse("2147483647"));
+        assertEquals(Integer.MIN_VALUE, parse("-2147483648"));
+        assertEquals(2147483648L, parse("2147483648"));
+        assertEquals(-2147483649L, parse("-2147483649"));
+    }
+
+    @Test
+    public void longLimits() {
+        // 18 digits still fit the mantissa, 19 take the exact path
+        assertEquals(999999999999999999L, parse("999999999999999999"));
+        assertEquals(Long.MAX_VALUE, parse("9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, parse("-9223372036854775808"));
+        assertEquals(new BigDecimal("9223372036854775808"), parse("9223372036854775808"));
+        assertEquals(new BigDecimal("-9223372036854775809"), parse("-9223372036854775809"));
+        assertEquals(new BigDecimal("18446744073709551616"), parse("18446744073709551616"));
+    }
+
+    @Test
+    public void fastPathDigitLimit() {
+        // 15 digits use the exact power of ten, 16 and more go through parseDouble
+        assertDouble("123456789012345.0");
+        assertDouble("0.123456789012345");
+        assertDouble("1234567890123456.0");
+        assertDouble("0.1234567890123456");
+        assertDouble("9007199254740993.0");
+        assertDouble("0.30000000000000004");
+        assertDouble("99999999999999999.0");
+    }
+
+    @Test
+    public void fastPathExponentLimit() {
+        assertDouble("1e22");
+        assertDouble("1e23");
+        assertDouble("1e-22");
+        assertDouble("1e-23");
+        assertDouble("123456789012345e22");
+        assertDouble("123456789012345e23");
+        assertDouble("123456789012345e-22");
+        assertDouble("123456789012345e-23");
+        assertDouble("8.98846567431158e307");
+        assertDouble("4.9e-324");
+        assertDouble("2.2250738585072014E-308");
+    }
+
+    @Test
+    public void outOfDoubleRange() {
+        assertEquals(new BigDecimal("1e400"), parse("1e400"));
+        assertEquals(new BigDecimal("1e-400"), parse("1e-400"));
+        assertEquals(0.0d, parse("0e400"));
+    }
+
+    @Test
+    public void moreThanSeventeenDigits() {
+        assertEquals(new BigDecimal("0.123456789012345678"), parse("0.123456789012345678"));
+        // trailing zeros are not significant
+        assertDouble("0.1000000000000000000000");
+    }
+
+    @Test
+    public void stopsAtFirstNonNumberChar() {
+        int[] pos = new int[1];
+        assertEquals(12, JSONNumber.parse("12,3", pos, 4));
+        assertEquals(2, pos[0]);
+        pos[0] = 0;
+        assertEquals(1, JSONNumber.parse("1e", pos, 2));
+        assertEquals(1, pos[0]);
+        assertNull(parse("-"));
+        assertNull(parse("."));
+        assertEquals(6, JSONNumber.scan("-1.5e3]", 0, 7));
+        assertEquals(-1, JSONNumber.scan("x", 0, 1));
+    }
+
+    /**
+     * Parse through the String, byte[] and Reader entry points and check they agree.
+     */
+    private static Object parseAll(String json) throws IOException {
+        byte[] b = json.getBytes(StandardCharsets.US_ASCII);
+        Object value = JSONParser.parse(json);
+        assertEquals(json, value, JSONParser.parse(b, 0, b.length));
+        assertEquals(json, value, JSONParser.parse(new StringReader(json)));
+        assertEquals(json, -1, JSONParser.validate(b, 0, b.length));
+        return value;
+    }
+
+    @Test
+    public void exponentsBeyondBigDecimalScale() throws IOException {
+        assertEquals(Double.POSITIVE_INFINITY, parseAll("1e9999999999"));
+        assertEquals(Collections.singletonList(Double.POSITIVE_INFINITY), parseAll("[1.5e99999999999]"));
+        assertEquals(Double.NEGATIVE_INFINITY, parseAll("-1E+00000000000000000099999999999"));
+        assertEquals(-0.0d, parseAll("-1e-9999999999"));
+        assertEquals(0.0d, parseAll("0e99999999999"));
+        assertEquals(0.0d, parseAll("0.000e99999999999"));
+        // nine exponent digits still fit a BigDecimal
+        assertEquals(new BigDecimal("1e999999999"), parseAll("1e999999999"));
+        assertEquals(new BigDecimal("1e-999999999"), parseAll("1e-000999999999"));
+    }
+
+    @Test
+    public void leadingPlusIsOnlyAcceptedByTheScanner() {
+        assertEquals(1, parse("+1"));
+        for (String json : new String[] {"+1", "[+1]", "{\"a\":+1.5}"}) {
+            byte[] b = json.getBytes(StandardCharsets.US_ASCII);
+            try {
+                JSONParser.parse(b, 0, b.length);
+                fail("bytes accepted " + json);
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("json unexpected character '+'"));
+            }
+            try {
+                JSONParser.parse(new StringReader(json));
+                fail("reader accepted " + json);
+            } catch (IllegalStateException | IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("json unexpected character '+'"));
+            }
+            assertTrue(json, JSONParser.validate(b, 0, b.length) >= 0);
+        }
+    }
+}
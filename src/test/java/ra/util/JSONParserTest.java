@@ -0,0 +1,276 @@
+package ra.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String ESCAPES = "{\"q\\\"k\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\","
+            + "\"u\":\"\\u00e9\\u4e2d\\ud83d\\ude00\",\"raw\":\"\u00e9\u4e2d\ud83d\ude00\","
+            + "\"mixed\":[\"\\n\u00fc\",\"plain\",\"\"]}";
+
+    private static Map<String, Object> expectedEscapes() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("q\"k", "a\"b\\c/d\b\f\n\r\t");
+        map.put("u", "\u00e9\u4e2d\ud83d\ude00");
+        map.put("raw", "\u00e9\u4e2d\ud83d\ude00");
+        map.put("mixed", Arrays.asList("\n\u00fc", "plain", ""));
+        return map;
+    }
+
+    /**
+     * Parse through every entry point and check they agree.
+     */
+    private Object parseAll(String json) throws IOException {
+        Object expected = JSONParser.parse(json);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        byte[] padded = new byte[b.length + 6];
+        System.arraycopy(b, 0, padded, 3, b.length);
+        assertEquals(expected, JSONParser.parse(b, 0, b.length));
+        assertEquals(expected, JSONParser.parse(padded, 3, b.length));
+        assertEquals(expected, JSONParser.parse(ByteBuffer.wrap(padded, 3, b.length)));
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+        direct.put(b).flip();
+        assertEquals(expected, JSONParser.parse(direct));
+        assertEquals(0, direct.position());
+        assertEquals(expected, JSONParser.parse(new StringReader(json)));
+        assertEquals(expected, JSONParser.parse(new ByteArrayInputStream(b)));
+        assertEquals(expected, JSONParser.parse(Channels.newChannel(new ByteArrayInputStream(b))));
+        assertEquals(expected, JSONParser.parse(new JSONReader(new StringReader(json), 16)));
+        Path path = tmp.newFile().toPath();
+        Files.write(path, b);
+        assertEquals(expected, JSONParser.parse(path));
+        return expected;
+    }
+
+    @Test
+    public void escapedStrings() throws IOException {
+        assertEquals(expectedEscapes(), parseAll(ESCAPES));
+        // the first escaped string of a parse allocates the scratch space
+        assertEquals("\n", JSONParser.parse("\"\\n\"".getBytes(StandardCharsets.UTF_8), 0, 4));
+    }
+
+    @Test
+    public void longEscapedString() throws IOException {
+        StringBuilder json = new StringBuilder("\"");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            json.append("ab\\u00e9\\n\u4e2d");
+            expected.append("ab\u00e9\n\u4e2d");
+        }
+        json.append('"');
+        assertEquals(expected.toString(), parseAll(json.toString()));
+    }
+
+    @Test
+    public void numbersAndLiterals() throws IOException {
+        List list = (List) parseAll("[0,-1,2147483648,1.5,-2e-3,1e400,12345678901234567890,true,false,null]");
+        assertEquals(Arrays.asList(0, -1, 2147483648L, 1.5d, -2e-3d, new BigDecimal("1e400"),
+                new BigDecimal("12345678901234567890"), true, false, null), list);
+    }
+
+    @Test
+    public void nestedContainers() throws IOException {
+        Object tree = parseAll(" {\"a\":{\"b\":[[],{},[1,[2,{\"c\":null}]]]},\"d\":[]} ");
+        List third = (List) JSONParser.getValue(tree, "a.b[2]");
+        assertEquals(Collections.singletonMap("c", null), ((List) third.get(1)).get(1));
+        assertEquals(Collections.emptyList(), JSONParser.getValue(tree, "d"));
+    }
+
+    private static String nested(String open, String leaf, String close, int depth) {
+        StringBuilder json = new StringBuilder(depth * (open.length() + close.length()) + leaf.length());
+        for (int i = 0; i < depth; i++)
+            json.append(open);
+        json.append(leaf);
+        for (int i = 0; i < depth; i++)
+            json.append(close);
+        return json.toString();
+    }
+
+    /**
+     * @return how many containers are nested along the first child of each, walked without recursion
+     */
+    private static int depth(Object tree) {
+        int depth = 0;
+        while (tree instanceof List || tree instanceof Map) {
+            Collection c = tree instanceof List ? (List) tree : ((Map) tree).values();
+            depth++;
+            if (c.isEmpty())
+                break;
+            tree = c.iterator().next();
+        }
+        return depth;
+    }
+
+    @Test
+    public void deepNestingThroughEveryEntryPoint() throws IOException {
+        int depth = 100000;
+        for (String json : new String[] {nested("[", "1", "]", depth), nested("{\"a\":", "1", "}", depth)}) {
+            byte[] b = json.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(depth, depth(JSONParser.parse(json)));
+            assertEquals(depth, depth(JSONParser.parse(b, 0, b.length)));
+            assertEquals(depth, depth(JSONParser.parse(ByteBuffer.wrap(b))));
+            ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+            direct.put(b).flip();
+            assertEquals(depth, depth(JSONParser.parse(direct)));
+            assertEquals(depth, depth(JSONParser.parse(new StringReader(json))));
+            assertEquals(depth, depth(JSONParser.parse(new ByteArrayInputStream(b))));
+            Path path = tmp.newFile().toPath();
+            Files.write(path, b);
+            assertEquals(depth, depth(JSONParser.parse(path)));
+
+            JSONParser options = new JSONParser().setReuseContainers(true).setCompactMaps(true)
+                    .setPrimitiveArrays(true).setLazyNumbers(true).setInternKeys(true);
+            Object tree = options.read(b, 0, b.length);
+            assertEquals(depth, depth(tree));
+            options.release(tree);
+            tree = options.read(new JSONReader(new StringReader(json)));
+            assertEquals(depth, depth(tree));
+            options.release(tree);
+            tree = new JSONParser().setReuseContainers(true).read(json);
+            assertEquals(depth, depth(tree));
+            options.release(tree);
+        }
+    }
+
+    @Test
+    public void deepUnclosedInputIsAnError() {
+        byte[] b = nested("[", "", "", 100000).getBytes(StandardCharsets.US_ASCII);
+        try {
+            JSONParser.parse(b, 0, b.length);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            JSONParser.parse(new ByteArrayInputStream(b));
+            fail();
+        } catch (IllegalStateException | IOException expected) {
+        }
+    }
+
+    @Test
+    public void whitespaceOnly() throws IOException {
+        assertNull(JSONParser.parse(" \n\t"));
+        byte[] b = " \r\n".getBytes(StandardCharsets.US_ASCII);
+        assertNull(JSONParser.parse(b, 0, b.length));
+    }
+
+    private static void assertRejectedByStrictPaths(String json) {
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        try {
+            JSONParser.parse(b, 0, b.length);
+            fail("bytes accepted " + json);
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            JSONParser.parse(new StringReader(json));
+            fail("reader accepted " + json);
+        } catch (IllegalStateException | IOException expected) {
+        }
+        assertTrue(json, JSONParser.validate(b, 0, b.length) >= 0);
+    }
+
+    @Test
+    public void malformedInput() {
+        String[] bad = {"[1,]", "{\"a\" 1}", "{\"a\":1,}", "[\"abc", "\"\\x\"", "\"\\u12g4\"", "{1:2}", "tru", "[-]", "}", "[1,,2]"};
+        for (String json : bad) {
+            assertRejectedByStrictPaths(json);
+            try {
+                JSONParser.parse(json);
+                fail("string accepted " + json);
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void stringPathIsLenient() {
+        Object[][] lenient = {
+                {"[1 2]", Arrays.asList(1, 2)},
+                {"{\"a\":1 \"b\":2}", JSONParser.parse("{\"a\":1,\"b\":2}")},
+                {"[,1]", Collections.singletonList(1)},
+                {"{,\"a\":1}", Collections.singletonMap("a", 1)},
+                {"[+1,01,1.,.5]", Arrays.asList(1, 1, 1.0d, 0.5d)},
+                {"[\"a\tb\u0001\"]", Collections.singletonList("a\tb\u0001")},
+                {"[1,\u000b2]", Arrays.asList(1, 2)},
+        };
+        for (Object[] c : lenient) {
+            String json = (String) c[0];
+            assertEquals(json, c[1], JSONParser.parse(json));
+            assertEquals(json, c[1], new JSONParser().read(json));
+            assertRejectedByStrictPaths(json);
+        }
+    }
+
+    @Test
+    public void validate() {
+        byte[] ok = ESCAPES.getBytes(StandardCharsets.UTF_8);
+        assertEquals(-1, JSONParser.validate(ok, 0, ok.length));
+        assertEquals(-1, JSONParser.validate(ByteBuffer.wrap(ok)));
+        byte[] trailing = "[1] x".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(4, JSONParser.validate(trailing, 0, trailing.length));
+        byte[] badUtf8 = {'"', (byte) 0xC3, '"'};
+        assertTrue(JSONParser.validate(badUtf8, 0, badUtf8.length) >= 0);
+    }
+
+    @Test
+    public void internedKeys() {
+        JSONParser parser = new JSONParser().setInternKeys(true);
+        byte[] b = "[{\"name\":1},{\"name\":2}]".getBytes(StandardCharsets.UTF_8);
+        List list = (List) parser.read(b, 0, b.length);
+        String k1 = (String) ((Map) list.get(0)).keySet().iterator().next();
+        String k2 = (String) ((Map) list.get(1)).keySet().iterator().next();
+        assertSame(k1, k2);
+    }
+
+    @Test
+    public void extract() throws IOException {
+        String json = "{\"skip\":{\"deep\":[1,2,{\"x\":\"y\"}]},\"order\":{\"items\":[{\"sku\":\"a\"},{\"sku\":\"b\\u00e9\"}]}}";
+        Object[] expected = {"b\u00e9", null, Collections.singletonMap("sku", "a")};
+        String[] paths = {"order.items[1].sku", "order.missing", "order.items[0]"};
+        assertArrayEquals(expected, JSONParser.extract(json, paths));
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, JSONParser.extract(b, 0, b.length, paths));
+        assertEquals("b\u00e9", JSONParser.getValue(JSONParser.parse(json), JSONPath.compile("order.items[1].sku")));
+    }
+
+    @Test
+    public void parseStream() {
+        assertEquals(Arrays.asList(1, Collections.singletonMap("a", "\n"), "s"), JSONParser.parseStream("1 {\"a\":\"\\n\"} \"s\""));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Object tree = parseAll(ESCAPES);
+        assertEquals(tree, JSONParser.parse(JSONParser.toString(tree)));
+        assertEquals(tree, JSONParser.parse(JSONParser.toPrettyString(tree, 2)));
+        assertEquals(JSONParser.toString(tree), JSONParser.stripWhitespace(JSONParser.toPrettyString(tree, 4)));
+    }
+}
@@ -0,0 +1,75 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class JSONPrettyTest {
+
+    private static final String DOC = "{\"empty\":{},\"none\":[],\"nested\":{\"a\":[{},[],[{}]],\"b\":{\"c\":[]}},"
+            + "\"text\":\"\u00e9\u4e2d\ud83d\ude00\",\"braces\":\"{[,:]} \\\" \\\\\",\"list\":[1,-2.5,true,null,\"x\"]}";
+
+    /**
+     * Indent the text through text to text, bytes to bytes and tree to text and bytes,
+     * check the outputs are byte-identical and return them.
+     */
+    private static String prettyAll(String text, int indent) throws IOException {
+        Object tree = JSONParser.parse(text);
+        String fromTree = JSONParser.toPrettyString(tree, indent);
+
+        StringWriter chars = new StringWriter();
+        JSONPretty.print(new StringReader(text), chars, indent);
+        assertEquals(fromTree, chars.toString());
+        assertEquals(fromTree, JSONPretty.toPretty(text, indent));
+
+        byte[] expected = fromTree.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSONPretty.print(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), bytes, indent);
+        assertArrayEquals(expected, bytes.toByteArray());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        JSONWriter writer = new JSONWriter(written).setIndent(indent);
+        writer.write(tree);
+        writer.flush();
+        assertArrayEquals(expected, written.toByteArray());
+        return fromTree;
+    }
+
+    @Test
+    public void allPathsAgree() throws IOException {
+        for (int indent : new int[] {1, 2, 4}) {
+            prettyAll(DOC, indent);
+            // whitespace in the input is replaced, not kept
+            prettyAll(JSONParser.toPrettyString(JSONParser.parse(DOC), 3).replace("\n", "\r\n\t"), indent);
+        }
+        for (String json : new String[] {"{}", "[]", "[[]]", "{\"a\":{}}", "\"{[\"", "1"})
+            prettyAll(json, 2);
+    }
+
+    @Test
+    public void layout() throws IOException {
+        String nl = System.lineSeparator();
+        assertEquals("{" + nl + "  \"a\": [" + nl + "    1," + nl + "    {}" + nl + "  ]," + nl
+                + "  \"b\": \"}\\\"\"," + nl + "  \"c\": []" + nl + "}",
+                prettyAll("{\"a\":[1,{}],\"b\":\"}\\\"\",\"c\":[]}", 2));
+    }
+
+    @Test
+    public void largeDocumentAcrossBuffers() throws IOException {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"id\":").append(i).append(",\"s\":\"\u00e9 {\\\"x\\\": [ ] }\",\"e\":[]}");
+        }
+        prettyAll(sb.append(']').toString(), 2);
+    }
+}
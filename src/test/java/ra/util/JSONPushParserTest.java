@@ -0,0 +1,99 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONPushParserTest {
+
+    private static final String DOC = "{\"a\":[1,-2.5e3,\"x\\\"y\\u00e9\",true,false,null],"
+            + "\"\u00fcber\":{},\"c\":[],\"d\":{\"e\":[[]]}}";
+
+    /**
+     * Feed the text in chunks of the given size and collect the values.
+     */
+    private static List<Object> feed(String json, int chunkSize) {
+        List<Object> values = new ArrayList<>();
+        JSONPushParser parser = new JSONPushParser(values::add);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < b.length; i += chunkSize)
+            parser.feed(b, i, Math.min(chunkSize, b.length - i));
+        parser.end();
+        assertTrue(parser.isIdle());
+        return values;
+    }
+
+    @Test
+    public void anyChunkingGivesTheSameTree() {
+        Object expected = JSONParser.parse(DOC);
+        for (int size = 1; size <= DOC.length() + 1; size++)
+            assertEquals("chunks of " + size, Arrays.asList(expected), feed(DOC, size));
+    }
+
+    @Test
+    public void emptyContainers() {
+        assertEquals(Arrays.asList(JSONParser.parse("{}"), JSONParser.parse("[]")), feed("{} []", 1));
+        assertEquals(Arrays.asList(JSONParser.parse("{\"a\":{}}")), feed("{ \"a\" : { } }", 2));
+    }
+
+    @Test
+    public void multipleTopLevelValues() {
+        assertEquals(Arrays.asList(1, "two", true, null, 3.5d), feed("1 \"two\" true null 3.5", 3));
+    }
+
+    @Test
+    public void trailingNumberCompletesOnEnd() {
+        List<Object> values = new ArrayList<>();
+        JSONPushParser parser = new JSONPushParser(values::add);
+        parser.feed(ByteBuffer.wrap("12".getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(values.isEmpty());
+        assertFalse(parser.isIdle());
+        parser.end();
+        assertEquals(Arrays.asList(12), values);
+    }
+
+    @Test
+    public void directBuffer() {
+        byte[] b = DOC.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+        direct.put(b).flip();
+        List<Object> values = new ArrayList<>();
+        JSONPushParser parser = new JSONPushParser(values::add);
+        parser.feed(direct);
+        parser.end();
+        assertEquals(0, direct.remaining());
+        assertEquals(Arrays.asList(JSONParser.parse(DOC)), values);
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        for (String json : new String[] {"{1:2}", "{\"a\" 1}", "[1 2]", "{\"a\":1]", "[tru]", "}", "[\"\\x\"]"}) {
+            try {
+                feed(json, 1);
+                fail("accepted " + json);
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void incompleteInputFailsOnEnd() {
+        JSONPushParser parser = new JSONPushParser(v -> fail());
+        byte[] b = "{\"a\":[1".getBytes(StandardCharsets.US_ASCII);
+        parser.feed(b, 0, b.length);
+        try {
+            parser.end();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONTapeTest {
+
+    private static Object lazy(String json) {
+        Object s = JSONParser.parseLazy(json);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        assertEquals(s, JSONParser.parseLazy(b, 0, b.length));
+        return s;
+    }
+
+    private static void assertRejected(String json) {
+        try {
+            JSONParser.parseLazy(json);
+            fail("accepted " + json);
+        } catch (IllegalStateException expected) {
+        }
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        try {
+            JSONParser.parseLazy(b, 0, b.length);
+            fail("accepted bytes of " + json);
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void matchesEagerParse() {
+        String json = "{\"a\":[1,2.5,\"x\\ny\",true,false,null,{}],\"b\":{\"c\":\"\u00e9\"},\"d\":[]}";
+        assertEquals(JSONParser.parse(json), lazy(json));
+        assertNull(lazy("  "));
+    }
+
+    @Test
+    public void rejectsTrailingContent() {
+        assertRejected("[1] garbage");
+        assertRejected("{} {}");
+        assertRejected("1 2");
+        assertEquals(Collections.singletonList(1), lazy(" [1] \n"));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        assertRejected("[1,]");
+        assertRejected("{\"a\" 1}");
+        assertRejected("[01x]");
+        assertRejected("\"\\x\"");
+        assertRejected("[1");
+    }
+
+    @Test
+    public void duplicateKeysKeepLastValue() {
+        Map map = (Map) lazy("{\"a\":1,\"b\":2,\"a\":3}");
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", 3);
+        expected.put("b", 2);
+        assertEquals(2, map.size());
+        assertEquals(3, map.get("a"));
+        assertEquals(expected.entrySet(), map.entrySet());
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(map.keySet().toArray()));
+        assertEquals(expected, JSONParser.parse("{\"a\":1,\"b\":2,\"a\":3}"));
+    }
+
+    @Test
+    public void duplicateKeysWithEscapes() {
+        Map map = (Map) lazy("{\"a\":1,\"\\u0061\":2}");
+        assertEquals(1, map.size());
+        assertEquals(2, map.get("a"));
+    }
+
+    @Test
+    public void duplicateKeysInIndexedObject() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < 20; i++)
+            sb.append('"').append("k").append(i % 10).append("\":").append(i).append(',');
+        sb.setCharAt(sb.length() - 1, '}');
+        Map map = (Map) lazy(sb.toString());
+        assertEquals(10, map.size());
+        assertEquals(19, map.get("k9"));
+        assertEquals(JSONParser.parse(sb.toString()), map);
+        assertTrue(map.containsKey("k0"));
+        assertFalse(map.containsKey("k10"));
+    }
+
+    @Test
+    public void arrayView() {
+        List list = (List) lazy("[[1],[2,[3]]]");
+        assertEquals(2, list.size());
+        assertEquals(Arrays.asList(2, Collections.singletonList(3)), list.get(1));
+        try {
+            list.get(2);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSONWriterTest {
+
+    public static class PublicToJSON {
+        public Object toJSON() {
+            return Collections.singletonMap("kind", "public");
+        }
+    }
+
+    static class PackagePrivateToJSON {
+        public Object toJSON() {
+            return Collections.singletonMap("kind", "package-private");
+        }
+    }
+
+    private static class PrivateToJSON {
+        public Object toJSON() {
+            return Collections.singletonList("private");
+        }
+    }
+
+    static class StaticToJSON {
+        static Object toJSON() {
+            return 1;
+        }
+    }
+
+    static class NoToJSON {
+        @Override
+        public String toString() {
+            return "plain";
+        }
+    }
+
+    static class FailingToJSON {
+        public Object toJSON() {
+            throw new IllegalArgumentException();
+        }
+
+        @Override
+        public String toString() {
+            return "failed";
+        }
+    }
+
+    public static class SerializableToJSON implements JSONSerializable {
+        public Map<String, Object> toMap() {
+            return Collections.singletonMap("from", "map");
+        }
+
+        public void fromMap(Map<String, Object> m) {
+        }
+
+        public String toJSON() {
+            return "{\"from\":\"json\"}";
+        }
+
+        public void fromJSON(String json) {
+        }
+    }
+
+    @Test
+    public void toJSONOfPublicClass() {
+        assertEquals("{\"kind\":\"public\"}", JSONParser.toString(new PublicToJSON()));
+    }
+
+    @Test
+    public void toJSONOfNonPublicClasses() {
+        assertEquals("{\"kind\":\"package-private\"}", JSONParser.toString(new PackagePrivateToJSON()));
+        assertEquals("[\"private\"]", JSONParser.toString(new PrivateToJSON()));
+        assertEquals("1", JSONParser.toString(new StaticToJSON()));
+    }
+
+    @Test
+    public void jsonSerializableIsWrittenFromToJSON() {
+        // the String toJSON() returns is a value like any other, not spliced in or replaced by toMap()
+        assertEquals("\"{\\\"from\\\":\\\"json\\\"}\"", JSONParser.toString(new SerializableToJSON()));
+        assertEquals("[\"{\\\"from\\\":\\\"json\\\"}\"]", JSONParser.toString(Collections.singletonList(new SerializableToJSON())));
+    }
+
+    @Test
+    public void fallsBackToString() {
+        assertEquals("\"plain\"", JSONParser.toString(new NoToJSON()));
+        assertEquals("\"failed\"", JSONParser.toString(new FailingToJSON()));
+    }
+
+    /** IEEE 754 bit patterns and their ECMAScript form, from RFC 8785 appendix B */
+    private static final String[][] ES6_NUMBERS = {
+            {"0000000000000000", "0"},
+            {"8000000000000000", "0"},
+            {"0000000000000001", "5e-324"},
+            {"8000000000000001", "-5e-324"},
+            {"7fefffffffffffff", "1.7976931348623157e+308"},
+            {"ffefffffffffffff", "-1.7976931348623157e+308"},
+            {"4340000000000000", "9007199254740992"},
+            {"c340000000000000", "-9007199254740992"},
+            {"4430000000000000", "295147905179352830000"},
+            {"44b52d02c7e14af5", "9.999999999999997e+22"},
+            {"44b52d02c7e14af6", "1e+23"},
+            {"44b52d02c7e14af7", "1.0000000000000001e+23"},
+            {"444b1ae4d6e2ef4e", "999999999999999700000"},
+            {"444b1ae4d6e2ef4f", "999999999999999900000"},
+            {"444b1ae4d6e2ef50", "1e+21"},
+            {"3eb0c6f7a0b5ed8c", "9.999999999999997e-7"},
+            {"3eb0c6f7a0b5ed8d", "0.000001"},
+            {"41b3de4355555553", "333333333.3333332"},
+            {"41b3de4355555554", "333333333.33333325"},
+            {"41b3de4355555555", "333333333.3333333"},
+            {"41b3de4355555556", "333333333.3333334"},
+            {"41b3de4355555557", "333333333.33333343"},
+            {"becbf647612f3696", "-0.0000033333333333333333"},
+            {"43143ff3c1cb0959", "1424953923781206.2"},
+    };
+
+    @Test
+    public void canonicalNumbersMatchECMAScript() {
+        for (String[] c : ES6_NUMBERS) {
+            double d = Double.longBitsToDouble(Long.parseUnsignedLong(c[0], 16));
+            assertEquals(c[0], c[1], JSONWriter.canonicalNumber(d));
+        }
+    }
+
+    @Test
+    public void canonicalNumbersAreShortestNotDoubleToString() {
+        // Double.toString gives 282879384806159008 digits and 9.999999999999999E22 before JDK 19
+        assertEquals("[282879384806159000,1e+23]",
+                JSONParser.toCanonicalString(Arrays.asList(2.82879384806159E17, 1.0E23)));
+        assertEquals("2e-7", JSONWriter.canonicalNumber(2.0E-7));
+        assertEquals("0.1", JSONWriter.canonicalNumber(0.1d));
+        assertEquals("123.456", JSONWriter.canonicalNumber(123.456d));
+        assertEquals("1e+21", JSONWriter.canonicalNumber(1e21));
+        assertEquals("100000000000000000000", JSONWriter.canonicalNumber(1e20));
+    }
+
+    @Test
+    public void canonicalNumbersReadBack() {
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            double d = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                continue;
+            String s = JSONWriter.canonicalNumber(d);
+            assertEquals(s, d == 0 ? 0d : d, Double.parseDouble(s), 0d);
+            String digits = new BigDecimal(Double.toString(d)).stripTrailingZeros().unscaledValue().abs().toString();
+            String ours = new BigDecimal(s).stripTrailingZeros().unscaledValue().abs().toString();
+            assertTrue(s, ours.length() <= digits.length());
+        }
+    }
+
+    @Test
+    public void canonicalFloatsUseFloatDigits() {
+        assertEquals("0.1", JSONWriter.canonicalNumber(0.1f));
+        assertEquals("16777216", JSONWriter.canonicalNumber(16777216f));
+        assertEquals("3.4028235e+38", JSONWriter.canonicalNumber(Float.MAX_VALUE));
+        assertEquals("[1.1,2.5]", JSONParser.toCanonicalString(Arrays.asList(1.1f, 2.5f)));
+    }
+
+    @Test
+    public void canonicalBigNumbersKeepTheirDigits() {
+        assertEquals("0.1234567890123456789", JSONWriter.canonicalNumber(new BigDecimal("0.12345678901234567890")));
+        assertEquals("1.2345678901234567890123e+29", JSONWriter.canonicalNumber(new BigDecimal("1234567890123456789012.3e8")));
+    }
+
+    /**
+     * The same members as orderedB, inserted in another order, with nested objects and
+     * keys whose UTF-16 order differs from their code point order.
+     */
+    private static Map<String, Object> orderedA() {
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("z", Arrays.asList(1, 2.5, "\u00e9"));
+        inner.put("a", null);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("\ud83d\ude00", 1);
+        map.put("\ufb33", 2);
+        map.put("inner", inner);
+        map.put("long", repeat('x', 20000));
+        map.put("b", true);
+        return map;
+    }
+
+    private static Map<String, Object> orderedB() {
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("a", null);
+        inner.put("z", Arrays.asList(1, 2.5, "\u00e9"));
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("b", true);
+        map.put("long", repeat('x', 20000));
+        map.put("inner", inner);
+        map.put("\ufb33", 2);
+        map.put("\ud83d\ude00", 1);
+        return map;
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void digestIgnoresKeyOrderAndMatchesCanonicalBytes() throws GeneralSecurityException, IOException {
+        Map<String, Object> a = orderedA();
+        Map<String, Object> b = orderedB();
+        String canonical = JSONParser.toCanonicalString(a);
+        assertEquals(canonical, JSONParser.toCanonicalString(b));
+        assertTrue(canonical.startsWith("{\"b\":true,\"inner\":{\"a\":null,\"z\":[1,2.5,\"\u00e9\"]},\"long\":"));
+        assertTrue(canonical.endsWith(",\"\ud83d\ude00\":1,\"\ufb33\":2}"));
+
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        assertArrayEquals(expected, JSONParser.digest(a, md));
+        assertArrayEquals(expected, JSONParser.digest(b, md));
+
+        new JSONWriter(md).setCanonical(true).write(b).flush();
+        assertArrayEquals(expected, md.digest());
+        assertFalse(Arrays.equals(expected, JSONParser.digest(Collections.singletonMap("b", false), md)));
+    }
+
+    @Test
+    public void signatureCoversCanonicalBytes() throws GeneralSecurityException, IOException {
+        KeyPair keys = KeyPairGenerator.getInstance("EC").generateKeyPair();
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(keys.getPrivate());
+        JSONParser.update(orderedA(), signer);
+        byte[] signature = signer.sign();
+
+        Signature verifier = Signature.getInstance("SHA256withECDSA");
+        verifier.initVerify(keys.getPublic());
+        verifier.update(JSONParser.toCanonicalString(orderedB()).getBytes(StandardCharsets.UTF_8));
+        assertTrue(verifier.verify(signature));
+
+        verifier.initVerify(keys.getPublic());
+        new JSONWriter(verifier).setCanonical(true).write(orderedB()).flush();
+        assertTrue(verifier.verify(signature));
+
+        verifier.initVerify(keys.getPublic());
+        Map<String, Object> changed = orderedB();
+        changed.put("b", false);
+        JSONParser.update(changed, verifier);
+        assertFalse(verifier.verify(signature));
+    }
+
+    @Test
+    public void canonicalRejectsNaNAndInfinity() throws GeneralSecurityException {
+        Object[] bad = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Float.NaN,
+                Float.POSITIVE_INFINITY, Arrays.asList(1, Double.NaN), Collections.singletonMap("k", Float.NEGATIVE_INFINITY)};
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (Object value : bad) {
+            try {
+                JSONParser.toCanonicalString(value);
+                fail("wrote " + value);
+            } catch (IllegalStateException expected) {
+            }
+            try {
+                JSONParser.digest(value, md);
+                fail("hashed " + value);
+            } catch (IllegalStateException expected) {
+            }
+            md.reset();
+        }
+    }
+}
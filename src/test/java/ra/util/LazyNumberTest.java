@@ -0,0 +1,94 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LazyNumberTest {
+
+    private static final String NUMBERS = "[1.10,1e2,1E+2,-0.0,0,-7,2147483648,0.1,1e-5,12345678901234567890,1.5e400]";
+
+    /**
+     * @return the lazy trees of the String, byte[] and JSONReader paths
+     */
+    private static List<Object> readAll(String json) throws IOException {
+        JSONParser parser = new JSONParser().setLazyNumbers(true);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        return Arrays.asList(parser.read(json), parser.read(b, 0, b.length),
+                parser.read(new JSONReader(new StringReader(json))));
+    }
+
+    @Test
+    public void writtenVerbatim() throws IOException {
+        for (Object tree : readAll(NUMBERS)) {
+            for (Object n : (List) tree)
+                assertSame(LazyNumber.class, n.getClass());
+            assertEquals(NUMBERS, JSONParser.toString(tree));
+            assertEquals("1.10", ((List) tree).get(0).toString());
+        }
+        String object = "{\"price\":19.90,\"qty\":1e0}";
+        for (Object tree : readAll(object))
+            assertEquals(object, JSONParser.toString(tree));
+    }
+
+    @Test
+    public void canonicalModeNormalizes() throws IOException {
+        String canonical = JSONParser.toCanonicalString(JSONParser.parse(NUMBERS));
+        assertEquals("[1.1,100,100,0,0,-7,2147483648,0.1,0.00001,12345678901234567890,1.5e+400]", canonical);
+        for (Object tree : readAll(NUMBERS))
+            assertEquals(canonical, JSONParser.toCanonicalString(tree));
+    }
+
+    @Test
+    public void convertsToTheEagerValue() throws IOException {
+        List eager = (List) JSONParser.parse(NUMBERS);
+        for (Object tree : readAll(NUMBERS)) {
+            List lazy = (List) tree;
+            for (int i = 0; i < eager.size(); i++) {
+                Number expected = (Number) eager.get(i);
+                LazyNumber n = (LazyNumber) lazy.get(i);
+                assertEquals(n.toString(), expected, n.toNumber());
+                assertSame(n.toString(), expected.getClass(), n.toNumber().getClass());
+                assertEquals(expected.longValue(), n.longValue());
+                assertEquals(expected.intValue(), n.intValue());
+                assertEquals(expected.doubleValue(), n.doubleValue(), 0d);
+                assertEquals(expected.floatValue(), n.floatValue(), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void stringPathFallsBackToEagerValues() {
+        // numbers the lenient String scanner accepts but that are not RFC 8259 are not copied verbatim
+        List list = (List) new JSONParser().setLazyNumbers(true).read("[+1,01,1.,2]");
+        assertEquals(Arrays.asList(1, 1, 1.0d, new LazyNumber("2", 0, 1)), list);
+        assertSame(Integer.class, list.get(0).getClass());
+        assertSame(Integer.class, list.get(1).getClass());
+        assertSame(Double.class, list.get(2).getClass());
+        assertSame(LazyNumber.class, list.get(3).getClass());
+        assertEquals("[1,1,1.0,2]", JSONParser.toString(list));
+    }
+
+    @Test
+    public void equalOnlyToLazyNumbers() throws IOException {
+        List lazy = (List) readAll(NUMBERS).get(1);
+        List eager = (List) JSONParser.parse(NUMBERS);
+        // same converted value, different text
+        assertEquals(lazy.get(1), lazy.get(2));
+        assertEquals(lazy.get(1).hashCode(), lazy.get(2).hashCode());
+        assertEquals(lazy, readAll(NUMBERS).get(0));
+        assertFalse(lazy.get(0).equals(eager.get(0)));
+        assertFalse(eager.get(0).equals(lazy.get(0)));
+        assertFalse(eager.equals(lazy));
+        assertTrue(JSONParser.toCanonicalString(eager).equals(JSONParser.toCanonicalString(lazy)));
+    }
+}
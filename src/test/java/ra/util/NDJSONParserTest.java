@@ -0,0 +1,131 @@
+package ra.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NDJSONParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path write(String text) throws IOException {
+        Path path = tmp.newFile().toPath();
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static List<Object> ordered(Path path) throws IOException {
+        List<Object> values = new ArrayList<>();
+        NDJSONParser.forEach(path, values::add, true);
+        return values;
+    }
+
+    private static IllegalStateException failure(Path path) throws IOException {
+        try {
+            ordered(path);
+        } catch (IllegalStateException e) {
+            return e;
+        }
+        fail("accepted " + path);
+        return null;
+    }
+
+    @Test
+    public void parsesLinesSkippingBlankOnes() throws IOException {
+        Path path = write("{\"a\":1}\r\n\n  \n[2,\"\\u00e9\"]\n3");
+        List<Object> values = ordered(path);
+        assertEquals(3, values.size());
+        assertEquals(Collections.singletonMap("a", 1), values.get(0));
+        assertEquals(JSONParser.parse("[2,\"\u00e9\"]"), values.get(1));
+        assertEquals(3, values.get(2));
+        try (Stream<Object> stream = NDJSONParser.stream(path)) {
+            assertEquals(values, stream.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void rejectsTrailingContentOnALine() throws IOException {
+        IllegalStateException e = failure(write("{\"a\":1}\n{\"a\":1} trailing\n"));
+        assertEquals("NDJSON line 2 at byte 8: json unexpected character after value at 8", e.getMessage());
+        e = failure(write("{\"a\":1}{\"b\":2}\n"));
+        assertTrue(e.getMessage(), e.getMessage().startsWith("NDJSON line 1 at byte 0: "));
+    }
+
+    @Test
+    public void reportsLineNumberAcrossChunks() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int lines = 0;
+        while (sb.length() < 5 * 1024 * 1024) {
+            sb.append("{\"id\":").append(lines++).append(",\"name\":\"record\"}\n");
+        }
+        int offset = sb.length();
+        sb.append("{\"id\":").append(lines).append(",}\n");
+        sb.append("{\"id\":0}\n");
+        Path path = write(sb.toString());
+
+        String expected = "NDJSON line " + (lines + 1) + " at byte " + offset + ": ";
+        IllegalStateException e = failure(path);
+        assertTrue(e.getMessage(), e.getMessage().startsWith(expected));
+        try {
+            NDJSONParser.forEach(path, new ConcurrentLinkedQueue<>()::add, false);
+            fail();
+        } catch (IllegalStateException unordered) {
+            // the original exception, not a copy wrapping it
+            assertTrue(unordered.getMessage(), unordered.getMessage().startsWith(expected));
+        }
+    }
+
+    @Test
+    public void unorderedDeliversEveryLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300000; i++)
+            sb.append("{\"id\":").append(i).append("}\n");
+        Path path = write(sb.toString());
+        ConcurrentLinkedQueue<Object> values = new ConcurrentLinkedQueue<>();
+        NDJSONParser.forEach(path, values::add, false);
+        assertEquals(300000, values.size());
+        long sum = 0;
+        for (Object v : values)
+            sum += ((Number) ((Map) v).get("id")).longValue();
+        assertEquals(300000L * 299999 / 2, sum);
+        assertEquals(ordered(path).size(), 300000);
+    }
+
+    @Test
+    public void consumerFailuresAreRethrownAsThrown() throws IOException {
+        Path path = write("1\n2\n3\n");
+        // its message is cause.toString(), like a copy ForkJoinTask makes of a worker's exception
+        final IllegalStateException thrown = new IllegalStateException(new IllegalStateException("inner"));
+        final AssertionError error = new AssertionError("consumer");
+        for (final Throwable t : new Throwable[] {thrown, error}) {
+            try {
+                NDJSONParser.forEach(path, value -> {
+                    if (t instanceof Error)
+                        throw (Error) t;
+                    throw (RuntimeException) t;
+                }, false);
+                fail();
+            } catch (IllegalStateException | AssertionError e) {
+                assertSame(t, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ra.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NumericListTest {
+
+    /**
+     * Parse with setPrimitiveArrays through the String, byte[] and JSONReader paths,
+     * check they agree with each other and with the plain parse, and return the byte[] result.
+     */
+    private static Object read(String json) throws IOException {
+        JSONParser parser = new JSONParser().setPrimitiveArrays(true);
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        Object fromBytes = parser.read(b, 0, b.length);
+        Object fromString = parser.read(json);
+        Object fromReader = parser.read(new JSONReader(new StringReader(json)));
+        Object eager = JSONParser.parse(json);
+        for (Object tree : new Object[] {fromString, fromReader}) {
+            assertEquals(json, fromBytes, tree);
+            assertEquals(json, classes(fromBytes), classes(tree));
+        }
+        assertEquals(json, eager, fromBytes);
+        assertEquals(json, fromBytes, eager);
+        assertEquals(json, eager.hashCode(), fromBytes.hashCode());
+        assertEquals(json, JSONParser.toString(eager), JSONParser.toString(fromBytes));
+        assertEquals(json, JSONParser.toCanonicalString(eager), JSONParser.toCanonicalString(fromBytes));
+        return fromBytes;
+    }
+
+    /**
+     * @return the classes of the tree's top-level container and of its elements or values
+     */
+    private static List<Class<?>> classes(Object tree) {
+        List<Class<?>> classes = new ArrayList<>();
+        classes.add(tree.getClass());
+        for (Object o : tree instanceof Map ? ((Map) tree).values() : (List) tree)
+            classes.add(o == null ? null : o.getClass());
+        return classes;
+    }
+
+    @Test
+    public void intsBecomeInts() throws IOException {
+        Object list = read("[1,-2,2147483647,-2147483648]");
+        assertSame(NumericList.Ints.class, list.getClass());
+        NumericList ints = (NumericList) list;
+        assertArrayEquals(new int[] {1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE}, (int[]) ints.array());
+        assertEquals(-2L, ints.getLong(1));
+        assertEquals(2147483647d, ints.getDouble(2), 0d);
+        assertEquals(Integer.valueOf(-2), ints.get(1));
+    }
+
+    @Test
+    public void intsWithLongsBecomeLongs() throws IOException {
+        NumericList longs = (NumericList) read("[1,4294967296,-9223372036854775808]");
+        assertSame(NumericList.Longs.class, longs.getClass());
+        assertArrayEquals(new long[] {1, 4294967296L, Long.MIN_VALUE}, (long[]) longs.array());
+        // boxed as the parser boxes them
+        assertEquals(Integer.valueOf(1), longs.get(0));
+        assertEquals(Long.valueOf(4294967296L), longs.get(1));
+        assertEquals(Long.MIN_VALUE, longs.getLong(2));
+        assertEquals(4294967296d, longs.getDouble(1), 0d);
+    }
+
+    @Test
+    public void decimalsBecomeDoubles() throws IOException {
+        NumericList doubles = (NumericList) read("[1.5,-2.75e3,0.1,1e-5]");
+        assertSame(NumericList.Doubles.class, doubles.getClass());
+        assertArrayEquals(new double[] {1.5, -2750, 0.1, 1e-5}, (double[]) doubles.array(), 0d);
+        assertEquals(-2750L, doubles.getLong(1));
+        assertEquals(1L, doubles.getLong(0));
+        assertEquals(0.1d, doubles.getDouble(2), 0d);
+    }
+
+    @Test
+    public void mixedAndEmptyArraysStayArrayLists() throws IOException {
+        String[] mixed = {"[]", "[1,2.5]", "[1,\"2\"]", "[1,null]", "[1.5,true]", "[1,12345678901234567890]", "[[1],[2]]"};
+        for (String json : mixed)
+            assertSame(json, ArrayList.class, read(json).getClass());
+    }
+
+    @Test
+    public void nestedArraysAndWriterOutput() throws IOException {
+        Map tree = (Map) read("{\"i\":[3,1],\"l\":[1,9999999999],\"d\":[1.0,100.0,0.5],\"m\":[1,2.0],\"e\":[]}");
+        assertTrue(tree.get("i") instanceof NumericList);
+        assertTrue(tree.get("l") instanceof NumericList);
+        assertTrue(tree.get("d") instanceof NumericList);
+        assertEquals("{\"i\":[3,1],\"l\":[1,9999999999],\"d\":[1.0,100.0,0.5],\"m\":[1,2.0],\"e\":[]}",
+                JSONParser.toString(tree));
+        assertEquals("{\"d\":[1,100,0.5],\"e\":[],\"i\":[3,1],\"l\":[1,9999999999],\"m\":[1,2]}",
+                JSONParser.toCanonicalString(tree));
+        assertEquals(Arrays.asList(3, 1), tree.get("i"));
+    }
+}